@@ -39,13 +39,261 @@ public abstract class ColorTransformer {
 
     public abstract float[] fromPCS(float[] src, float[] dst);
 
+    /**
+     * @return number of device color components
+     */
+    public abstract int getNumComponents();
+
+    /**
+     * @return number of PCS components produced by toPCS
+     */
+    public abstract int getNumPCSComponents();
+
+    /**
+     * Converts <code>count</code> interleaved pixels from device space to PCS.
+     * Strides are the distance (in array elements) between two consecutive
+     * pixels, so extra channels (e.g. alpha) can be skipped.
+     */
+    public void toPCS(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int count) {
+	int inCount = getNumComponents();
+	int outCount = getNumPCSComponents();
+	float[] s = new float[inCount];
+	float[] d = new float[outCount];
+	for (int i = 0; i < count; i++) {
+	    System.arraycopy(src, srcOffset, s, 0, inCount);
+	    toPCS(s, d);
+	    System.arraycopy(d, 0, dst, dstOffset, outCount);
+	    srcOffset += srcStride;
+	    dstOffset += dstStride;
+	}
+    }
+
+    /**
+     * Converts <code>count</code> interleaved pixels from PCS to device space.
+     *
+     * @see #toPCS(float[], int, int, float[], int, int, int)
+     */
+    public void fromPCS(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int count) {
+	int inCount = getNumPCSComponents();
+	int outCount = getNumComponents();
+	float[] s = new float[inCount];
+	float[] d = new float[outCount];
+	for (int i = 0; i < count; i++) {
+	    System.arraycopy(src, srcOffset, s, 0, inCount);
+	    fromPCS(s, d);
+	    System.arraycopy(d, 0, dst, dstOffset, outCount);
+	    srcOffset += srcStride;
+	    dstOffset += dstStride;
+	}
+    }
+
+    /**
+     * Converts <code>count</code> pixels with unsigned 8 bit samples to PCS.
+     */
+    public void toPCS(byte[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int count) {
+	int inCount = getNumComponents();
+	int outCount = getNumPCSComponents();
+	float[] s = new float[inCount];
+	float[] d = new float[outCount];
+	for (int i = 0; i < count; i++) {
+	    for (int c = 0; c < inCount; c++) {
+		s[c] = (src[srcOffset + c] & 0xFF) / 255f;
+	    }
+	    toPCS(s, d);
+	    System.arraycopy(d, 0, dst, dstOffset, outCount);
+	    srcOffset += srcStride;
+	    dstOffset += dstStride;
+	}
+    }
+
+    /**
+     * Converts <code>count</code> PCS pixels to unsigned 8 bit device samples.
+     */
+    public void fromPCS(float[] src, int srcOffset, int srcStride, byte[] dst, int dstOffset, int dstStride, int count) {
+	int inCount = getNumPCSComponents();
+	int outCount = getNumComponents();
+	float[] s = new float[inCount];
+	float[] d = new float[outCount];
+	for (int i = 0; i < count; i++) {
+	    System.arraycopy(src, srcOffset, s, 0, inCount);
+	    fromPCS(s, d);
+	    for (int c = 0; c < outCount; c++) {
+		dst[dstOffset + c] = (byte) LookupTables.quantize(d[c], 255);
+	    }
+	    srcOffset += srcStride;
+	    dstOffset += dstStride;
+	}
+    }
+
+    /**
+     * Converts <code>count</code> packed ARGB pixels to PCS (alpha is ignored).
+     * Only for 3 component (RGB) transformers.
+     */
+    public void toPCS(int[] src, int srcOffset, float[] dst, int dstOffset, int dstStride, int count) {
+	checkPacked();
+	float[] s = new float[3];
+	float[] d = new float[getNumPCSComponents()];
+	for (int i = 0; i < count; i++) {
+	    int argb = src[srcOffset + i];
+	    s[0] = ((argb >> 16) & 0xFF) / 255f;
+	    s[1] = ((argb >> 8) & 0xFF) / 255f;
+	    s[2] = (argb & 0xFF) / 255f;
+	    toPCS(s, d);
+	    System.arraycopy(d, 0, dst, dstOffset, d.length);
+	    dstOffset += dstStride;
+	}
+    }
+
+    /**
+     * Converts <code>count</code> PCS pixels to packed ARGB. Alpha bits already
+     * present in <code>dst</code> are preserved.
+     */
+    public void fromPCS(float[] src, int srcOffset, int srcStride, int[] dst, int dstOffset, int count) {
+	checkPacked();
+	float[] s = new float[getNumPCSComponents()];
+	float[] d = new float[3];
+	for (int i = 0; i < count; i++) {
+	    System.arraycopy(src, srcOffset, s, 0, s.length);
+	    fromPCS(s, d);
+	    int r = LookupTables.quantize(d[0], 255);
+	    int g = LookupTables.quantize(d[1], 255);
+	    int b = LookupTables.quantize(d[2], 255);
+	    int index = dstOffset + i;
+	    dst[index] = (dst[index] & 0xFF000000) | (r << 16) | (g << 8) | b;
+	    srcOffset += srcStride;
+	}
+    }
+
+    /**
+     * Converts <code>count</code> pixels with unsigned 16 bit samples to PCS.
+     */
+    public void toPCS(short[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int count) {
+	int inCount = getNumComponents();
+	int chunk = Math.min(count, CHUNK_SIZE);
+	float[] s = new float[chunk * inCount];
+	while (count > 0) {
+	    int n = Math.min(count, chunk);
+	    for (int i = 0, k = 0, off = srcOffset; i < n; i++, off += srcStride) {
+		for (int c = 0; c < inCount; c++) {
+		    s[k++] = (src[off + c] & 0xFFFF) / 65535f;
+		}
+	    }
+	    toPCS(s, 0, inCount, dst, dstOffset, dstStride, n);
+	    srcOffset += n * srcStride;
+	    dstOffset += n * dstStride;
+	    count -= n;
+	}
+    }
+
+    /**
+     * Converts <code>count</code> PCS pixels to unsigned 16 bit device samples.
+     */
+    public void fromPCS(float[] src, int srcOffset, int srcStride, short[] dst, int dstOffset, int dstStride, int count) {
+	int outCount = getNumComponents();
+	int chunk = Math.min(count, CHUNK_SIZE);
+	float[] d = new float[chunk * outCount];
+	while (count > 0) {
+	    int n = Math.min(count, chunk);
+	    fromPCS(src, srcOffset, srcStride, d, 0, outCount, n);
+	    for (int i = 0, k = 0, off = dstOffset; i < n; i++, off += dstStride) {
+		for (int c = 0; c < outCount; c++) {
+		    dst[off + c] = (short) LookupTables.quantize(d[k++], 65535);
+		}
+	    }
+	    srcOffset += n * srcStride;
+	    dstOffset += n * dstStride;
+	    count -= n;
+	}
+    }
+
+    /**
+     * Converts <code>count</code> pixels stored in planar form (one array per
+     * channel) from device space to PCS.
+     * <p>
+     * Transformers override planar methods with separate passes for curves,
+     * matrix and clamping; these passes are plain counted loops over primitive
+     * arrays which JIT compiler can vectorize.
+     */
+    public void toPCS(float[][] src, int srcOffset, float[][] dst, int dstOffset, int count) {
+	int inCount = getNumComponents();
+	int outCount = getNumPCSComponents();
+	float[] s = new float[inCount];
+	float[] d = new float[outCount];
+	for (int i = 0; i < count; i++) {
+	    for (int c = 0; c < inCount; c++) {
+		s[c] = src[c][srcOffset + i];
+	    }
+	    toPCS(s, d);
+	    for (int c = 0; c < outCount; c++) {
+		dst[c][dstOffset + i] = d[c];
+	    }
+	}
+    }
+
+    /**
+     * Converts <code>count</code> planar PCS pixels to device space.
+     *
+     * @see #toPCS(float[][], int, float[][], int, int)
+     */
+    public void fromPCS(float[][] src, int srcOffset, float[][] dst, int dstOffset, int count) {
+	int inCount = getNumPCSComponents();
+	int outCount = getNumComponents();
+	float[] s = new float[inCount];
+	float[] d = new float[outCount];
+	for (int i = 0; i < count; i++) {
+	    for (int c = 0; c < inCount; c++) {
+		s[c] = src[c][srcOffset + i];
+	    }
+	    fromPCS(s, d);
+	    for (int c = 0; c < outCount; c++) {
+		dst[c][dstOffset + i] = d[c];
+	    }
+	}
+    }
+
+    static final int CHUNK_SIZE = 1024;
+
+    private static volatile long maxTableMemory = 4L << 20;
+
+    /**
+     * Sets upper bound (in bytes) for lookup tables of a single transformer.
+     * Integer paths which would need more memory evaluate curves directly.
+     */
+    public static void setMaxTableMemory(long bytes) {
+	maxTableMemory = bytes;
+    }
+
+    public static long getMaxTableMemory() {
+	return maxTableMemory;
+    }
+
+    /**
+     * @return memory (in bytes) currently used by lookup tables of this
+     *         transformer
+     */
+    public long getTableMemory() {
+	return 0;
+    }
+
+    /**
+     * Builds lookup tables used for given pixel format in advance.
+     */
+    void prepare(PixelFormat format) {
+    }
+
+    private void checkPacked() {
+	if (getNumComponents() != 3) {
+	    throw new UnsupportedOperationException("Packed ARGB requires 3 color components, got " + getNumComponents());
+	}
+    }
+
     static class CT1 extends ColorTransformer {
 
 	ICurve grayTRC, grayTRCi;
 
 	protected CT1(ICurve grayTRC) {
-	    this.grayTRC = grayTRC;
-	    this.grayTRCi = grayTRC.inverse();
+	    this.grayTRC = CurveCompiler.compile(grayTRC);
+	    this.grayTRCi = this.grayTRC.inverse();
 	}
 
 	public float[] toPCS(float[] src, float[] dst) {
@@ -61,6 +309,143 @@ public abstract class ColorTransformer {
 	    dst[0] = deviceG;
 	    return dst;
 	}
+
+	@Override
+	public int getNumComponents() {
+	    return 1;
+	}
+
+	@Override
+	public int getNumPCSComponents() {
+	    return 1;
+	}
+
+	@Override
+	public void toPCS(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int count) {
+	    grayTRC.get(src, srcOffset, srcStride, dst, dstOffset, dstStride, count);
+	}
+
+	@Override
+	public void fromPCS(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int count) {
+	    grayTRCi.get(src, srcOffset, srcStride, dst, dstOffset, dstStride, count);
+	}
+
+	@Override
+	public void toPCS(byte[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int count) {
+	    float[] table = getForward8();
+	    for (int i = 0; i < count; i++) {
+		dst[dstOffset] = table[src[srcOffset] & 0xFF];
+		srcOffset += srcStride;
+		dstOffset += dstStride;
+	    }
+	}
+
+	@Override
+	public void fromPCS(float[] src, int srcOffset, int srcStride, byte[] dst, int dstOffset, int dstStride, int count) {
+	    byte[] table = getInverse8();
+	    for (int i = 0; i < count; i++) {
+		dst[dstOffset] = table[LookupTables.index8(src[srcOffset])];
+		srcOffset += srcStride;
+		dstOffset += dstStride;
+	    }
+	}
+
+	private volatile float[] forward8;
+	private volatile byte[] inverse8;
+
+	float[] getForward8() {
+	    float[] t = forward8;
+	    if (t == null) {
+		t = LookupTables.forward(grayTRC, 256);
+		forward8 = t;
+	    }
+	    return t;
+	}
+
+	byte[] getInverse8() {
+	    byte[] t = inverse8;
+	    if (t == null) {
+		t = LookupTables.inverse8(grayTRCi);
+		inverse8 = t;
+	    }
+	    return t;
+	}
+
+	@Override
+	public void toPCS(short[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int count) {
+	    Tables16 t = getTables16();
+	    if (t == null) {
+		super.toPCS(src, srcOffset, srcStride, dst, dstOffset, dstStride, count);
+		return;
+	    }
+	    float[] table = t.forward[0];
+	    for (int i = 0; i < count; i++) {
+		dst[dstOffset] = table[src[srcOffset] & 0xFFFF];
+		srcOffset += srcStride;
+		dstOffset += dstStride;
+	    }
+	}
+
+	@Override
+	public void fromPCS(float[] src, int srcOffset, int srcStride, short[] dst, int dstOffset, int dstStride, int count) {
+	    Tables16 t = getTables16();
+	    if (t == null) {
+		super.fromPCS(src, srcOffset, srcStride, dst, dstOffset, dstStride, count);
+		return;
+	    }
+	    short[] table = t.inverse[0];
+	    for (int i = 0; i < count; i++) {
+		dst[dstOffset] = table[LookupTables.index16(src[srcOffset])];
+		srcOffset += srcStride;
+		dstOffset += dstStride;
+	    }
+	}
+
+	private volatile Tables16 tables16;
+	private volatile boolean tables16Rejected;
+
+	Tables16 getTables16() {
+	    Tables16 t = tables16;
+	    if (t == null && !tables16Rejected) {
+		ICurve[] curves = { grayTRC };
+		ICurve[] inverses = { grayTRCi };
+		if (getTableMemory() + Tables16.memory(curves, inverses) > getMaxTableMemory()) {
+		    tables16Rejected = true;
+		    return null;
+		}
+		t = new Tables16(curves, inverses);
+		tables16 = t;
+	    }
+	    return t;
+	}
+
+	@Override
+	void prepare(PixelFormat format) {
+	    if (format == PixelFormat.BYTE) {
+		getForward8();
+		getInverse8();
+	    } else if (format == PixelFormat.SHORT) {
+		getTables16();
+	    }
+	}
+
+	@Override
+	public long getTableMemory() {
+	    long size = 0;
+	    float[] f8 = forward8;
+	    if (f8 != null) {
+		size += f8.length * 4L;
+	    }
+	    byte[] i8 = inverse8;
+	    if (i8 != null) {
+		size += i8.length;
+	    }
+	    Tables16 t16 = tables16;
+	    if (t16 != null) {
+		size += t16.memory();
+	    }
+	    return size;
+	}
     }
 
     static class CT3 extends ColorTransformer {
@@ -76,9 +461,9 @@ public abstract class ColorTransformer {
 	    this.greenMatrixColumn = greenMatrixColumn;
 	    this.blueMatrixColumn = blueMatrixColumn;
 
-	    this.redTRC = redTRC;
-	    this.greenTRC = greenTRC;
-	    this.blueTRC = blueTRC;
+	    this.redTRC = CurveCompiler.compile(redTRC);
+	    this.greenTRC = CurveCompiler.compile(greenTRC);
+	    this.blueTRC = CurveCompiler.compile(blueTRC);
 
 	    rX = redMatrixColumn[0];
 	    rY = redMatrixColumn[1];
@@ -109,9 +494,10 @@ public abstract class ColorTransformer {
 	    gZi = (float) cmi.Gz;
 	    bZi = (float) cmi.Bz;
 
-	    redTRCi = redTRC.inverse();
-	    greenTRCi = greenTRC.inverse();
-	    blueTRCi = blueTRC.inverse();
+	    // channels sharing one curve tag share its inverse too
+	    redTRCi = this.redTRC.inverse();
+	    greenTRCi = greenTRC == redTRC ? redTRCi : this.greenTRC.inverse();
+	    blueTRCi = blueTRC == redTRC ? redTRCi : (blueTRC == greenTRC ? greenTRCi : this.blueTRC.inverse());
 	}
 
 	public float[] toPCS(float[] src, float[] dst) {
@@ -167,5 +553,416 @@ public abstract class ColorTransformer {
 	    dst[2] = deviceB;
 	    return dst;
 	}
+
+	@Override
+	public int getNumComponents() {
+	    return 3;
+	}
+
+	@Override
+	public int getNumPCSComponents() {
+	    return 3;
+	}
+
+	@Override
+	public void toPCS(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int count) {
+	    final float rX = this.rX, rY = this.rY, rZ = this.rZ;
+	    final float gX = this.gX, gY = this.gY, gZ = this.gZ;
+	    final float bX = this.bX, bY = this.bY, bZ = this.bZ;
+
+	    // linearize each channel into dst, then apply matrix in place
+	    redTRC.get(src, srcOffset, srcStride, dst, dstOffset, dstStride, count);
+	    greenTRC.get(src, srcOffset + 1, srcStride, dst, dstOffset + 1, dstStride, count);
+	    blueTRC.get(src, srcOffset + 2, srcStride, dst, dstOffset + 2, dstStride, count);
+
+	    for (int i = 0; i < count; i++) {
+		float linearR = dst[dstOffset];
+		float linearG = dst[dstOffset + 1];
+		float linearB = dst[dstOffset + 2];
+
+		dst[dstOffset] = rX * linearR + gX * linearG + bX * linearB;
+		dst[dstOffset + 1] = rY * linearR + gY * linearG + bY * linearB;
+		dst[dstOffset + 2] = rZ * linearR + gZ * linearG + bZ * linearB;
+
+		dstOffset += dstStride;
+	    }
+	}
+
+	@Override
+	public void fromPCS(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int count) {
+	    final float rXi = this.rXi, rYi = this.rYi, rZi = this.rZi;
+	    final float gXi = this.gXi, gYi = this.gYi, gZi = this.gZi;
+	    final float bXi = this.bXi, bYi = this.bYi, bZi = this.bZi;
+
+	    // apply matrix into dst, then curves and clamping in place
+	    for (int i = 0, d = dstOffset; i < count; i++) {
+		float pcsX = src[srcOffset];
+		float pcsY = src[srcOffset + 1];
+		float pcsZ = src[srcOffset + 2];
+
+		dst[d] = rXi * pcsX + gXi * pcsY + bXi * pcsZ;
+		dst[d + 1] = rYi * pcsX + gYi * pcsY + bYi * pcsZ;
+		dst[d + 2] = rZi * pcsX + gZi * pcsY + bZi * pcsZ;
+
+		srcOffset += srcStride;
+		d += dstStride;
+	    }
+
+	    redTRCi.get(dst, dstOffset, dstStride, dst, dstOffset, dstStride, count);
+	    greenTRCi.get(dst, dstOffset + 1, dstStride, dst, dstOffset + 1, dstStride, count);
+	    blueTRCi.get(dst, dstOffset + 2, dstStride, dst, dstOffset + 2, dstStride, count);
+
+	    for (int i = 0; i < count; i++) {
+		for (int c = 0; c < 3; c++) {
+		    float device = dst[dstOffset + c];
+		    dst[dstOffset + c] = device > 1 ? 1 : (device < 0 ? 0 : device);
+		}
+		dstOffset += dstStride;
+	    }
+	}
+
+	@Override
+	public void toPCS(byte[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int count) {
+	    Tables8 t = getTables8();
+	    final float[] rT = t.red, gT = t.green, bT = t.blue;
+	    final float rX = this.rX, rY = this.rY, rZ = this.rZ;
+	    final float gX = this.gX, gY = this.gY, gZ = this.gZ;
+	    final float bX = this.bX, bY = this.bY, bZ = this.bZ;
+
+	    for (int i = 0; i < count; i++) {
+		float linearR = rT[src[srcOffset] & 0xFF];
+		float linearG = gT[src[srcOffset + 1] & 0xFF];
+		float linearB = bT[src[srcOffset + 2] & 0xFF];
+
+		dst[dstOffset] = rX * linearR + gX * linearG + bX * linearB;
+		dst[dstOffset + 1] = rY * linearR + gY * linearG + bY * linearB;
+		dst[dstOffset + 2] = rZ * linearR + gZ * linearG + bZ * linearB;
+
+		srcOffset += srcStride;
+		dstOffset += dstStride;
+	    }
+	}
+
+	@Override
+	public void fromPCS(float[] src, int srcOffset, int srcStride, byte[] dst, int dstOffset, int dstStride, int count) {
+	    Tables8 t = getTables8();
+	    final byte[] rT = t.redInverse, gT = t.greenInverse, bT = t.blueInverse;
+	    final float rXi = this.rXi, rYi = this.rYi, rZi = this.rZi;
+	    final float gXi = this.gXi, gYi = this.gYi, gZi = this.gZi;
+	    final float bXi = this.bXi, bYi = this.bYi, bZi = this.bZi;
+
+	    for (int i = 0; i < count; i++) {
+		float pcsX = src[srcOffset];
+		float pcsY = src[srcOffset + 1];
+		float pcsZ = src[srcOffset + 2];
+
+		dst[dstOffset] = rT[LookupTables.index8(rXi * pcsX + gXi * pcsY + bXi * pcsZ)];
+		dst[dstOffset + 1] = gT[LookupTables.index8(rYi * pcsX + gYi * pcsY + bYi * pcsZ)];
+		dst[dstOffset + 2] = bT[LookupTables.index8(rZi * pcsX + gZi * pcsY + bZi * pcsZ)];
+
+		srcOffset += srcStride;
+		dstOffset += dstStride;
+	    }
+	}
+
+	@Override
+	public void toPCS(int[] src, int srcOffset, float[] dst, int dstOffset, int dstStride, int count) {
+	    Tables8 t = getTables8();
+	    final float[] rT = t.red, gT = t.green, bT = t.blue;
+	    final float rX = this.rX, rY = this.rY, rZ = this.rZ;
+	    final float gX = this.gX, gY = this.gY, gZ = this.gZ;
+	    final float bX = this.bX, bY = this.bY, bZ = this.bZ;
+
+	    for (int i = 0; i < count; i++) {
+		int argb = src[srcOffset + i];
+		float linearR = rT[(argb >> 16) & 0xFF];
+		float linearG = gT[(argb >> 8) & 0xFF];
+		float linearB = bT[argb & 0xFF];
+
+		dst[dstOffset] = rX * linearR + gX * linearG + bX * linearB;
+		dst[dstOffset + 1] = rY * linearR + gY * linearG + bY * linearB;
+		dst[dstOffset + 2] = rZ * linearR + gZ * linearG + bZ * linearB;
+
+		dstOffset += dstStride;
+	    }
+	}
+
+	@Override
+	public void fromPCS(float[] src, int srcOffset, int srcStride, int[] dst, int dstOffset, int count) {
+	    Tables8 t = getTables8();
+	    final byte[] rT = t.redInverse, gT = t.greenInverse, bT = t.blueInverse;
+	    final float rXi = this.rXi, rYi = this.rYi, rZi = this.rZi;
+	    final float gXi = this.gXi, gYi = this.gYi, gZi = this.gZi;
+	    final float bXi = this.bXi, bYi = this.bYi, bZi = this.bZi;
+
+	    for (int i = 0; i < count; i++) {
+		float pcsX = src[srcOffset];
+		float pcsY = src[srcOffset + 1];
+		float pcsZ = src[srcOffset + 2];
+
+		int r = rT[LookupTables.index8(rXi * pcsX + gXi * pcsY + bXi * pcsZ)] & 0xFF;
+		int g = gT[LookupTables.index8(rYi * pcsX + gYi * pcsY + bYi * pcsZ)] & 0xFF;
+		int b = bT[LookupTables.index8(rZi * pcsX + gZi * pcsY + bZi * pcsZ)] & 0xFF;
+
+		int index = dstOffset + i;
+		dst[index] = (dst[index] & 0xFF000000) | (r << 16) | (g << 8) | b;
+		srcOffset += srcStride;
+	    }
+	}
+
+	@Override
+	public void toPCS(float[][] src, int srcOffset, float[][] dst, int dstOffset, int count) {
+	    final float[] r = dst[0], g = dst[1], b = dst[2];
+	    redTRC.get(src[0], srcOffset, 1, r, dstOffset, 1, count);
+	    greenTRC.get(src[1], srcOffset, 1, g, dstOffset, 1, count);
+	    blueTRC.get(src[2], srcOffset, 1, b, dstOffset, 1, count);
+	    multiply(r, g, b, dstOffset, count, rX, gX, bX, rY, gY, bY, rZ, gZ, bZ);
+	}
+
+	@Override
+	public void fromPCS(float[][] src, int srcOffset, float[][] dst, int dstOffset, int count) {
+	    final float[] r = dst[0], g = dst[1], b = dst[2];
+	    if (src != dst || srcOffset != dstOffset) {
+		System.arraycopy(src[0], srcOffset, r, dstOffset, count);
+		System.arraycopy(src[1], srcOffset, g, dstOffset, count);
+		System.arraycopy(src[2], srcOffset, b, dstOffset, count);
+	    }
+	    multiply(r, g, b, dstOffset, count, rXi, gXi, bXi, rYi, gYi, bYi, rZi, gZi, bZi);
+
+	    redTRCi.get(r, dstOffset, 1, r, dstOffset, 1, count);
+	    greenTRCi.get(g, dstOffset, 1, g, dstOffset, 1, count);
+	    blueTRCi.get(b, dstOffset, 1, b, dstOffset, 1, count);
+	    clamp(r, dstOffset, count);
+	    clamp(g, dstOffset, count);
+	    clamp(b, dstOffset, count);
+	}
+
+	/**
+	 * In-place 3x3 matrix multiplication of planar data.
+	 */
+	private static void multiply(float[] p0, float[] p1, float[] p2, int offset, int count, float m00, float m01, float m02, float m10, float m11,
+		float m12, float m20, float m21, float m22) {
+	    for (int i = offset; i < offset + count; i++) {
+		float v0 = p0[i];
+		float v1 = p1[i];
+		float v2 = p2[i];
+		p0[i] = m00 * v0 + m01 * v1 + m02 * v2;
+		p1[i] = m10 * v0 + m11 * v1 + m12 * v2;
+		p2[i] = m20 * v0 + m21 * v1 + m22 * v2;
+	    }
+	}
+
+	private static void clamp(float[] p, int offset, int count) {
+	    for (int i = offset; i < offset + count; i++) {
+		p[i] = Math.min(1f, Math.max(0f, p[i]));
+	    }
+	}
+
+	private volatile Tables8 tables8;
+
+	Tables8 getTables8() {
+	    Tables8 t = tables8;
+	    if (t == null) {
+		t = new Tables8(this);
+		tables8 = t;
+	    }
+	    return t;
+	}
+
+	@Override
+	public void toPCS(short[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int count) {
+	    Tables16 t = getTables16();
+	    if (t == null) {
+		super.toPCS(src, srcOffset, srcStride, dst, dstOffset, dstStride, count);
+		return;
+	    }
+	    final float[] rT = t.forward[0], gT = t.forward[1], bT = t.forward[2];
+	    final float rX = this.rX, rY = this.rY, rZ = this.rZ;
+	    final float gX = this.gX, gY = this.gY, gZ = this.gZ;
+	    final float bX = this.bX, bY = this.bY, bZ = this.bZ;
+
+	    for (int i = 0; i < count; i++) {
+		float linearR = rT[src[srcOffset] & 0xFFFF];
+		float linearG = gT[src[srcOffset + 1] & 0xFFFF];
+		float linearB = bT[src[srcOffset + 2] & 0xFFFF];
+
+		dst[dstOffset] = rX * linearR + gX * linearG + bX * linearB;
+		dst[dstOffset + 1] = rY * linearR + gY * linearG + bY * linearB;
+		dst[dstOffset + 2] = rZ * linearR + gZ * linearG + bZ * linearB;
+
+		srcOffset += srcStride;
+		dstOffset += dstStride;
+	    }
+	}
+
+	@Override
+	public void fromPCS(float[] src, int srcOffset, int srcStride, short[] dst, int dstOffset, int dstStride, int count) {
+	    Tables16 t = getTables16();
+	    if (t == null) {
+		super.fromPCS(src, srcOffset, srcStride, dst, dstOffset, dstStride, count);
+		return;
+	    }
+	    final short[] rT = t.inverse[0], gT = t.inverse[1], bT = t.inverse[2];
+	    final float rXi = this.rXi, rYi = this.rYi, rZi = this.rZi;
+	    final float gXi = this.gXi, gYi = this.gYi, gZi = this.gZi;
+	    final float bXi = this.bXi, bYi = this.bYi, bZi = this.bZi;
+
+	    for (int i = 0; i < count; i++) {
+		float pcsX = src[srcOffset];
+		float pcsY = src[srcOffset + 1];
+		float pcsZ = src[srcOffset + 2];
+
+		dst[dstOffset] = rT[LookupTables.index16(rXi * pcsX + gXi * pcsY + bXi * pcsZ)];
+		dst[dstOffset + 1] = gT[LookupTables.index16(rYi * pcsX + gYi * pcsY + bYi * pcsZ)];
+		dst[dstOffset + 2] = bT[LookupTables.index16(rZi * pcsX + gZi * pcsY + bZi * pcsZ)];
+
+		srcOffset += srcStride;
+		dstOffset += dstStride;
+	    }
+	}
+
+	private volatile Tables16 tables16;
+	private volatile boolean tables16Rejected;
+
+	Tables16 getTables16() {
+	    Tables16 t = tables16;
+	    if (t == null && !tables16Rejected) {
+		ICurve[] curves = { redTRC, greenTRC, blueTRC };
+		ICurve[] inverses = { redTRCi, greenTRCi, blueTRCi };
+		if (getTableMemory() + Tables16.memory(curves, inverses) > getMaxTableMemory()) {
+		    tables16Rejected = true;
+		    return null;
+		}
+		t = new Tables16(curves, inverses);
+		tables16 = t;
+	    }
+	    return t;
+	}
+
+	@Override
+	void prepare(PixelFormat format) {
+	    if (format == PixelFormat.BYTE) {
+		getTables8();
+	    } else if (format == PixelFormat.SHORT) {
+		getTables16();
+	    }
+	}
+
+	@Override
+	public long getTableMemory() {
+	    long size = 0;
+	    Tables8 t8 = tables8;
+	    if (t8 != null) {
+		size += t8.memory();
+	    }
+	    Tables16 t16 = tables16;
+	    if (t16 != null) {
+		size += t16.memory();
+	    }
+	    return size;
+	}
+    }
+
+    /**
+     * 8 bit lookup tables of CT3, built on first use.
+     */
+    static final class Tables8 {
+	final float[] red, green, blue;
+	final byte[] redInverse, greenInverse, blueInverse;
+
+	Tables8(CT3 ct) {
+	    red = LookupTables.forward(ct.redTRC, 256);
+	    green = ct.greenTRC == ct.redTRC ? red : LookupTables.forward(ct.greenTRC, 256);
+	    blue = ct.blueTRC == ct.redTRC ? red : (ct.blueTRC == ct.greenTRC ? green : LookupTables.forward(ct.blueTRC, 256));
+
+	    redInverse = LookupTables.inverse8(ct.redTRCi);
+	    greenInverse = ct.greenTRCi == ct.redTRCi ? redInverse : LookupTables.inverse8(ct.greenTRCi);
+	    blueInverse = ct.blueTRCi == ct.redTRCi ? redInverse
+		    : (ct.blueTRCi == ct.greenTRCi ? greenInverse : LookupTables.inverse8(ct.blueTRCi));
+	}
+
+	long memory() {
+	    long size = red.length * 4L + redInverse.length;
+	    if (green != red) {
+		size += green.length * 4L;
+	    }
+	    if (blue != red && blue != green) {
+		size += blue.length * 4L;
+	    }
+	    if (greenInverse != redInverse) {
+		size += greenInverse.length;
+	    }
+	    if (blueInverse != redInverse && blueInverse != greenInverse) {
+		size += blueInverse.length;
+	    }
+	    return size;
+	}
+    }
+
+    /**
+     * Full 16 bit lookup tables (one per channel). Channels which share the
+     * same curve share the same table.
+     */
+    static final class Tables16 {
+	final float[][] forward;
+	final short[][] inverse;
+
+	Tables16(ICurve[] curves, ICurve[] inverses) {
+	    forward = new float[curves.length][];
+	    inverse = new short[inverses.length][];
+	    for (int i = 0; i < curves.length; i++) {
+		int k = indexOf(curves, i);
+		forward[i] = k < i ? forward[k] : LookupTables.forward(curves[i], 65536);
+	    }
+	    for (int i = 0; i < inverses.length; i++) {
+		int k = indexOf(inverses, i);
+		inverse[i] = k < i ? inverse[k] : LookupTables.inverse16(inverses[i]);
+	    }
+	}
+
+	long memory() {
+	    long size = 0;
+	    for (int i = 0; i < forward.length; i++) {
+		if (indexOf(forward, i) == i) {
+		    size += forward[i].length * 4L;
+		}
+	    }
+	    for (int i = 0; i < inverse.length; i++) {
+		if (indexOf(inverse, i) == i) {
+		    size += inverse[i].length * 2L;
+		}
+	    }
+	    return size;
+	}
+
+	/**
+	 * Memory which would be needed for tables of given curves.
+	 */
+	static long memory(ICurve[] curves, ICurve[] inverses) {
+	    long size = 0;
+	    for (int i = 0; i < curves.length; i++) {
+		if (indexOf(curves, i) == i) {
+		    size += 65536 * 4L;
+		}
+	    }
+	    for (int i = 0; i < inverses.length; i++) {
+		if (indexOf(inverses, i) == i) {
+		    size += (LookupTables.INVERSE_16_SIZE + 1) * 2L;
+		}
+	    }
+	    return size;
+	}
+
+	/**
+	 * @return index of first element identical to <code>a[i]</code>
+	 */
+	private static int indexOf(Object[] a, int i) {
+	    for (int k = 0; k < i; k++) {
+		if (a[k] == a[i]) {
+		    return k;
+		}
+	    }
+	    return i;
+	}
     }
 }
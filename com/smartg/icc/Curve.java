@@ -40,6 +40,7 @@ public class Curve extends Tag implements ICurve {
     float[] values;
 
     Curve inverse;
+    private ICurve compiled;
 
     float gamma;
 
@@ -97,29 +98,27 @@ public class Curve extends Tag implements ICurve {
 	} else if (isGamma()) {
 	    return (float) Math.pow(a, gamma);
 	} else {
-	    if (a > 1.0f) {
-		return values[values.length - 1];
-	    } else if (a < 0) {
+	    int last = values.length - 1;
+	    if (a >= 1.0f) {
+		return values[last];
+	    } else if (a <= 0) {
 		return values[0];
 	    }
-	    int index = (int) (a * values.length);
-
-	    if (index >= values.length) {
-		return values[values.length - 1];
-	    }
-	    if (index <= 0) {
-		return values[0];
+	    float p = a * last;
+	    int index = (int) p;
+	    if (index >= last) {
+		return values[last];
 	    }
-	    int index2 = index + 1;
-	    float length = values.length;
-	    float smin = index / length;
-	    float smax = index2 / length;
-	    float dmin = values[index - 1];
-	    float dmax = values[index2 - 1];
-	    return interpolate(a, smin, smax, dmin, dmax);
+	    float dmin = values[index];
+	    float dmax = values[index + 1];
+	    return dmin + (p - index) * (dmax - dmin);
 	}
     }
 
+    public void get(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int length) {
+	compile().get(src, srcOffset, srcStride, dst, dstOffset, dstStride, length);
+    }
+
     protected final float interpolate(float x, float smin, float smax, float dmin, float dmax) {
 	float dHeight = dmax - dmin;
 	float sHeight = smax - smin;
@@ -130,16 +129,23 @@ public class Curve extends Tag implements ICurve {
 	if (inverse == null) {
 	    if (entryCount > 1) {
 		float[] ivalues = new float[entryCount];
-		int prevIndex = 0;
-		for (int i = 0; i < entryCount; i++) {
-		    float f = values[i];
-		    int index = (int) (f * (entryCount - 1));
-		    if (index < entryCount) {
-			for (int j = prevIndex + 1; j <= index; j++) {
-			    ivalues[j] = i / (float) entryCount;
-			}
+		int last = entryCount - 1;
+		boolean increasing = values[last] >= values[0];
+		int k = 0;
+		for (int n = 0; n <= last; n++) {
+		    // visit y in the direction of curve values, so segment
+		    // index k only moves forward
+		    int j = increasing ? n : last - n;
+		    float y = j / (float) last;
+		    // find segment [k, k + 1] which contains y
+		    while (k < last - 1 && (increasing ? values[k + 1] < y : values[k + 1] > y)) {
+			k++;
 		    }
-		    prevIndex = index;
+		    float dmin = values[k];
+		    float dmax = values[k + 1];
+		    float t = dmax != dmin ? (y - dmin) / (dmax - dmin) : 0;
+		    t = t < 0 ? 0 : (t > 1 ? 1 : t);
+		    ivalues[j] = (k + t) / last;
 		}
 		inverse = new Curve(getTagType(), ivalues);
 		inverse.inverse = this;
@@ -167,4 +173,14 @@ public class Curve extends Tag implements ICurve {
     public float[] getValues() {
 	return values;
     }
+
+    /**
+     * @return specialized evaluator of this curve, created once
+     */
+    synchronized ICurve compile() {
+	if (compiled == null) {
+	    compiled = CurveCompiler.create(this);
+	}
+	return compiled;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,541 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.smartg.icc;
+
+import com.smartg.icc.tag.Tag.ICurve;
+
+/**
+ * Compiles curves into specialized final evaluators with precomputed
+ * constants, so evaluation has no per-call type switches.
+ * <p>
+ * Evaluators give the same results as {@link Curve#get(float)} and
+ * {@link ParametricCurve#get(float)}. Compiled curves are memoized by their
+ * source, so curves shared between channels stay shared.
+ */
+final class CurveCompiler {
+
+    private CurveCompiler() {
+    }
+
+    /**
+     * @return evaluator for <code>curve</code>, or <code>curve</code> itself
+     *         if it can't be compiled (or is compiled already)
+     */
+    static ICurve compile(ICurve curve) {
+	if (curve instanceof Curve) {
+	    return ((Curve) curve).compile();
+	}
+	if (curve instanceof ParametricCurve) {
+	    return ((ParametricCurve) curve).compile();
+	}
+	return curve;
+    }
+
+    static ICurve create(Curve curve) {
+	if (curve.isIdentity()) {
+	    return new Identity(curve);
+	}
+	if (curve.isGamma()) {
+	    return new Gamma(curve, curve.getGamma());
+	}
+	return new Sampled(curve, curve.getValues());
+    }
+
+    private static final int[] PARAM_COUNT = { 1, 3, 4, 5, 7 };
+
+    private static boolean isValid(ParametricCurve curve) {
+	float[] p = curve.getParams();
+	int type = curve.getFunctionType();
+	return type >= 0 && type < PARAM_COUNT.length && p != null && p.length >= PARAM_COUNT[type];
+    }
+
+    static ICurve create(ParametricCurve curve) {
+	if (!isValid(curve)) {
+	    return curve;
+	}
+	float[] p = curve.getParams();
+	int type = curve.getFunctionType();
+	switch (type) {
+	case 0:
+	    return new Gamma(curve, p[0]);
+	case 1:
+	    return new Type1(curve, p[0], p[1], p[2]);
+	case 2:
+	    return new Type2(curve, p[0], p[1], p[2], p[3]);
+	case 3:
+	    return new Type3(curve, p[0], p[1], p[2], p[3], p[4]);
+	default:
+	    return new Type4(curve, p[0], p[1], p[2], p[3], p[4], p[5], p[6]);
+	}
+    }
+
+    /**
+     * Creates analytic inverse of <code>curve</code>.
+     *
+     * @return inverse evaluator or null if curve has no closed form inverse
+     *         (unknown type, missing parameters, k = 0 or a = 0)
+     */
+    static ICurve createInverse(ParametricCurve curve) {
+	if (!isValid(curve)) {
+	    return null;
+	}
+	float[] p = curve.getParams();
+	int type = curve.getFunctionType();
+	if (p[0] == 0 || (type > 0 && p[1] == 0)) {
+	    return null;
+	}
+	switch (type) {
+	case 0:
+	    return new InverseType0(curve, p[0]);
+	case 1:
+	    return new InverseType2(curve, p[0], p[1], p[2], 0);
+	case 2:
+	    return new InverseType2(curve, p[0], p[1], p[2], p[3]);
+	case 3:
+	    return new InverseType4(curve, p[0], p[1], p[2], p[3], p[4], 0, 0);
+	default:
+	    return new InverseType4(curve, p[0], p[1], p[2], p[3], p[4], p[5], p[6]);
+	}
+    }
+
+    /**
+     * Samples <code>curve</code> at <code>size</code> evenly spaced points
+     * in [0, 1].
+     */
+    static Curve sample(ICurve curve, int size) {
+	float[] values = new float[size];
+	for (int i = 0; i < size; i++) {
+	    values[i] = i / (float) (size - 1);
+	}
+	curve.get(values, 0, 1, values, 0, 1, size);
+	return new Curve(values);
+    }
+
+    static abstract class Evaluator implements ICurve {
+	final ICurve source;
+
+	Evaluator(ICurve source) {
+	    this.source = source;
+	}
+
+	public ICurve inverse() {
+	    return compile(source.inverse());
+	}
+
+	/**
+	 * @return curve this evaluator was compiled from
+	 */
+	ICurve getSource() {
+	    return source;
+	}
+    }
+
+    static final class Identity extends Evaluator {
+	Identity(ICurve source) {
+	    super(source);
+	}
+
+	public float get(float a) {
+	    return a;
+	}
+
+	public void get(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int length) {
+	    if (src == dst && srcOffset == dstOffset && srcStride == dstStride) {
+		return;
+	    }
+	    for (int i = 0; i < length; i++) {
+		dst[dstOffset] = src[srcOffset];
+		srcOffset += srcStride;
+		dstOffset += dstStride;
+	    }
+	}
+    }
+
+    /**
+     * Y = X^k
+     */
+    static final class Gamma extends Evaluator {
+	final double gamma;
+
+	Gamma(ICurve source, float gamma) {
+	    super(source);
+	    this.gamma = gamma;
+	}
+
+	public float get(float a) {
+	    return (float) Math.pow(a, gamma);
+	}
+
+	public void get(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int length) {
+	    final double gamma = this.gamma;
+	    for (int i = 0; i < length; i++) {
+		dst[dstOffset] = (float) Math.pow(src[srcOffset], gamma);
+		srcOffset += srcStride;
+		dstOffset += dstStride;
+	    }
+	}
+    }
+
+    /**
+     * Uniformly sampled table with linear interpolation.
+     */
+    static final class Sampled extends Evaluator {
+	final float[] values;
+	final int last;
+	final float first, lastValue;
+
+	Sampled(ICurve source, float[] values) {
+	    super(source);
+	    this.values = values;
+	    this.last = values.length - 1;
+	    this.first = values[0];
+	    this.lastValue = values[last];
+	}
+
+	public float get(float a) {
+	    if (a >= 1.0f) {
+		return lastValue;
+	    } else if (a <= 0) {
+		return first;
+	    }
+	    float p = a * last;
+	    int index = (int) p;
+	    if (index >= last) {
+		return lastValue;
+	    }
+	    float dmin = values[index];
+	    return dmin + (p - index) * (values[index + 1] - dmin);
+	}
+
+	public void get(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int length) {
+	    final float[] values = this.values;
+	    final int last = this.last;
+	    final float first = this.first, lastValue = this.lastValue;
+	    for (int i = 0; i < length; i++) {
+		float a = src[srcOffset];
+		float y;
+		if (a >= 1.0f) {
+		    y = lastValue;
+		} else if (a <= 0) {
+		    y = first;
+		} else {
+		    float p = a * last;
+		    int index = (int) p;
+		    if (index >= last) {
+			y = lastValue;
+		    } else {
+			float dmin = values[index];
+			y = dmin + (p - index) * (values[index + 1] - dmin);
+		    }
+		}
+		dst[dstOffset] = y;
+		srcOffset += srcStride;
+		dstOffset += dstStride;
+	    }
+	}
+    }
+
+    /**
+     * Y = (aX+b)^k for X >= -b/a, otherwise 0
+     */
+    static final class Type1 extends Evaluator {
+	final double k;
+	final float a, b, threshold;
+
+	Type1(ICurve source, float k, float a, float b) {
+	    super(source);
+	    this.k = k;
+	    this.a = a;
+	    this.b = b;
+	    this.threshold = -b / a;
+	}
+
+	public float get(float x) {
+	    if (x >= threshold) {
+		return (float) Math.pow(a * x + b, k);
+	    }
+	    return 0;
+	}
+
+	public void get(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int length) {
+	    final double k = this.k;
+	    final float a = this.a, b = this.b, threshold = this.threshold;
+	    for (int i = 0; i < length; i++) {
+		float x = src[srcOffset];
+		dst[dstOffset] = x >= threshold ? (float) Math.pow(a * x + b, k) : 0;
+		srcOffset += srcStride;
+		dstOffset += dstStride;
+	    }
+	}
+    }
+
+    /**
+     * Y = (aX+b)^k + c for X >= -b/a, otherwise c
+     */
+    static final class Type2 extends Evaluator {
+	final double k;
+	final float a, b, c, threshold;
+
+	Type2(ICurve source, float k, float a, float b, float c) {
+	    super(source);
+	    this.k = k;
+	    this.a = a;
+	    this.b = b;
+	    this.c = c;
+	    this.threshold = -b / a;
+	}
+
+	public float get(float x) {
+	    if (x >= threshold) {
+		return (float) Math.pow(a * x + b, k) + c;
+	    }
+	    return c;
+	}
+
+	public void get(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int length) {
+	    final double k = this.k;
+	    final float a = this.a, b = this.b, c = this.c, threshold = this.threshold;
+	    for (int i = 0; i < length; i++) {
+		float x = src[srcOffset];
+		dst[dstOffset] = x >= threshold ? (float) Math.pow(a * x + b, k) + c : c;
+		srcOffset += srcStride;
+		dstOffset += dstStride;
+	    }
+	}
+    }
+
+    /**
+     * Y = (aX+b)^k for X >= d, otherwise cX
+     */
+    static final class Type3 extends Evaluator {
+	final double k;
+	final float a, b, c, d;
+
+	Type3(ICurve source, float k, float a, float b, float c, float d) {
+	    super(source);
+	    this.k = k;
+	    this.a = a;
+	    this.b = b;
+	    this.c = c;
+	    this.d = d;
+	}
+
+	public float get(float x) {
+	    if (x >= d) {
+		return (float) Math.pow(a * x + b, k);
+	    }
+	    return c * x;
+	}
+
+	public void get(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int length) {
+	    final double k = this.k;
+	    final float a = this.a, b = this.b, c = this.c, d = this.d;
+	    for (int i = 0; i < length; i++) {
+		float x = src[srcOffset];
+		dst[dstOffset] = x >= d ? (float) Math.pow(a * x + b, k) : c * x;
+		srcOffset += srcStride;
+		dstOffset += dstStride;
+	    }
+	}
+    }
+
+    /**
+     * Y = (aX+b)^k + e for X >= d, otherwise cX + f
+     */
+    static final class Type4 extends Evaluator {
+	final double k;
+	final float a, b, c, d, e, f;
+
+	Type4(ICurve source, float k, float a, float b, float c, float d, float e, float f) {
+	    super(source);
+	    this.k = k;
+	    this.a = a;
+	    this.b = b;
+	    this.c = c;
+	    this.d = d;
+	    this.e = e;
+	    this.f = f;
+	}
+
+	public float get(float x) {
+	    if (x >= d) {
+		return (float) Math.pow(a * x + b, k) + e;
+	    }
+	    return c * x + f;
+	}
+
+	public void get(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int length) {
+	    final double k = this.k;
+	    final float a = this.a, b = this.b, c = this.c, d = this.d, e = this.e, f = this.f;
+	    for (int i = 0; i < length; i++) {
+		float x = src[srcOffset];
+		dst[dstOffset] = x >= d ? (float) Math.pow(a * x + b, k) + e : c * x + f;
+		srcOffset += srcStride;
+		dstOffset += dstStride;
+	    }
+	}
+    }
+
+    /**
+     * Inverse of parametric curve; <code>source</code> is the forward
+     * curve.
+     */
+    static abstract class InverseEvaluator extends Evaluator {
+	InverseEvaluator(ICurve source) {
+	    super(source);
+	}
+
+	@Override
+	public ICurve inverse() {
+	    return compile(source);
+	}
+
+	public void get(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int length) {
+	    for (int i = 0; i < length; i++) {
+		dst[dstOffset] = get(src[srcOffset]);
+		srcOffset += srcStride;
+		dstOffset += dstStride;
+	    }
+	}
+    }
+
+    /**
+     * X = Y^(1/k)
+     */
+    static final class InverseType0 extends InverseEvaluator {
+	final double ik;
+
+	InverseType0(ICurve source, float k) {
+	    super(source);
+	    this.ik = 1.0 / k;
+	}
+
+	public float get(float y) {
+	    return y > 0 ? (float) Math.pow(y, ik) : 0;
+	}
+
+	@Override
+	public void get(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int length) {
+	    final double ik = this.ik;
+	    for (int i = 0; i < length; i++) {
+		float y = src[srcOffset];
+		dst[dstOffset] = y > 0 ? (float) Math.pow(y, ik) : 0;
+		srcOffset += srcStride;
+		dstOffset += dstStride;
+	    }
+	}
+    }
+
+    /**
+     * Inverse of types 1 and 2: X = ((Y - c)^(1/k) - b) / a for Y > c,
+     * otherwise -b/a
+     */
+    static final class InverseType2 extends InverseEvaluator {
+	final double ik, a, b, c;
+	final float threshold;
+
+	InverseType2(ICurve source, float k, float a, float b, float c) {
+	    super(source);
+	    this.ik = 1.0 / k;
+	    this.a = a;
+	    this.b = b;
+	    this.c = c;
+	    this.threshold = -b / a;
+	}
+
+	public float get(float y) {
+	    if (y > c) {
+		return (float) ((Math.pow(y - c, ik) - b) / a);
+	    }
+	    return threshold;
+	}
+
+	@Override
+	public void get(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int length) {
+	    final double ik = this.ik, a = this.a, b = this.b, c = this.c;
+	    final float threshold = this.threshold;
+	    for (int i = 0; i < length; i++) {
+		float y = src[srcOffset];
+		dst[dstOffset] = y > c ? (float) ((Math.pow(y - c, ik) - b) / a) : threshold;
+		srcOffset += srcStride;
+		dstOffset += dstStride;
+	    }
+	}
+    }
+
+    /**
+     * Inverse of types 3 and 4: X = ((Y - e)^(1/k) - b) / a for Y >=
+     * (ad+b)^k + e, otherwise (Y - f) / c
+     */
+    static final class InverseType4 extends InverseEvaluator {
+	final double ik, a, b, e, ic, f;
+	final double threshold;
+
+	InverseType4(ICurve source, float k, float a, float b, float c, float d, float e, float f) {
+	    super(source);
+	    this.ik = 1.0 / k;
+	    this.a = a;
+	    this.b = b;
+	    this.e = e;
+	    this.f = f;
+	    // flat linear segment maps to 0
+	    this.ic = c != 0 ? 1.0 / c : 0;
+	    double base = a * (double) d + b;
+	    this.threshold = (base > 0 ? Math.pow(base, k) : 0) + e;
+	}
+
+	public float get(float y) {
+	    if (y >= threshold) {
+		double base = y - e;
+		return (float) (((base > 0 ? Math.pow(base, ik) : 0) - b) / a);
+	    }
+	    return (float) ((y - f) * ic);
+	}
+
+	@Override
+	public void get(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int length) {
+	    final double ik = this.ik, a = this.a, b = this.b, e = this.e, ic = this.ic, f = this.f;
+	    final double threshold = this.threshold;
+	    for (int i = 0; i < length; i++) {
+		float y = src[srcOffset];
+		float x;
+		if (y >= threshold) {
+		    double base = y - e;
+		    x = (float) (((base > 0 ? Math.pow(base, ik) : 0) - b) / a);
+		} else {
+		    x = (float) ((y - f) * ic);
+		}
+		dst[dstOffset] = x;
+		srcOffset += srcStride;
+		dstOffset += dstStride;
+	    }
+	}
+    }
+}
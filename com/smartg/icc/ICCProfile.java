@@ -32,14 +32,22 @@ package com.smartg.icc;
 import java.awt.color.ColorSpace;
 import java.awt.color.ICC_Profile;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
 
 import com.imagero.reader.IOParameterBlock;
 import com.imagero.uio.RandomAccessInput;
+import com.smartg.icc.tag.ByteBufferInputStream;
 import com.smartg.icc.tag.Tag;
 import com.smartg.icc.tag.Tag.Desc;
 import com.smartg.icc.tag.Tag.ICurve;
+import com.smartg.icc.tag.Tag.Lut;
+import com.smartg.icc.tag.Tag.LutAtoB;
 import com.smartg.icc.tag.Tag.MultiLocalizedUnicode;
 import com.smartg.icc.tag.Tag.XYZ;
 import com.smartg.icc.tag.TagType;
@@ -56,8 +64,15 @@ public class ICCProfile {
 
 	private ICurve redTRC, greenTRC, blueTRC, grayTRC;
 
+	private final byte[] digest;
+	private volatile ColorTransformer colorTransformer;
+	private ColorTransformer matrixTransformer;
+	private boolean matrixTransformerCreated;
+	private ColorTransformer absoluteMatrixTransformer;
+	private final ColorTransformer[] lutTransformers = new ColorTransformer[8];
+
 	public ICCProfile(ICC_Profile profile) throws IOException {
-		this(new IOParameterBlock(profileBytes(profile)));
+		this(ByteBuffer.wrap(profileBytes(profile)));
 	}
 
 	static byte[] profileBytes(ICC_Profile icc) throws IOException {
@@ -66,6 +81,18 @@ public class ICCProfile {
 		return out.toByteArray();
 	}
 
+	/**
+	 * @return shared sRGB profile, parsed once on first use. Shared instance
+	 *         must not be modified.
+	 */
+	public static ICCProfile getSRGB() {
+		return SRGBHolder.SRGB;
+	}
+
+	private static class SRGBHolder {
+		static final ICCProfile SRGB = createSRGB();
+	}
+
 	public static ICCProfile createSRGB() {
 		ICCProfile profile = null;
 		try {
@@ -76,15 +103,95 @@ public class ICCProfile {
 		return profile;
 	}
 
+	/**
+	 * Reads profile from source stream of <code>iopb</code>. Profile data is
+	 * copied once, so the stream is not used after constructor returns.
+	 */
 	public ICCProfile(IOParameterBlock iopb) throws IOException {
-		RandomAccessInput rai = iopb.getSourceStream();
+		this(readProfile(iopb.getSourceStream()));
+	}
 
+	private static ByteBuffer readProfile(RandomAccessInput rai) throws IOException {
 		InputStream in = rai.createInputStream(0);
+		ICC_Header header = new ICC_Header(in);
+		TagTable tagTable = new TagTable(in);
+
+		// read up to end of source, tags out of it are reported when requested
+		long length = Math.max(header.profileSize_4, tagTable.getDataEnd());
+		ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(length, 1 << 16));
+		InputStream data = rai.createInputStream(0);
+		byte[] buf = new byte[8192];
+		int n;
+		while (length > 0 && (n = data.read(buf, 0, (int) Math.min(buf.length, length))) > 0) {
+			out.write(buf, 0, n);
+			length -= n;
+		}
+		return ByteBuffer.wrap(out.toByteArray());
+	}
+
+	/**
+	 * Reads profile directly from remaining bytes of <code>buffer</code>
+	 * without copying. Tags are decoded from <code>buffer</code> on first
+	 * request, so its content must not be changed afterwards. Profile keeps
+	 * reference to <code>buffer</code> only until all tags are decoded (see
+	 * {@link #preloadAll()}); CLUTs of direct (memory mapped) buffers stay
+	 * backed by it until they are used.
+	 */
+	public ICCProfile(ByteBuffer buffer) throws IOException {
+		this(buffer, null);
+	}
+
+	/**
+	 * @param digest
+	 *            profile digest if already known, otherwise it is computed
+	 *            now
+	 */
+	ICCProfile(ByteBuffer buffer, byte[] digest) throws IOException {
+		buffer = buffer.slice();
+
+		ByteBuffer data = ICC_Header.profileData(buffer);
+
+		InputStream in = new ByteBufferInputStream(buffer);
 		header = new ICC_Header(in);
 		tagTable = new TagTable(in);
 
-		tagTable.readTags(rai);
+		if (digest == null) {
+			if (ICC_Header.isZero(header.profileID_16)) {
+				digest = ICC_Header.computeProfileID(data);
+			} else {
+				digest = header.profileID_16;
+			}
+		}
+		this.digest = digest.clone();
+
+		tagTable.setSource(buffer);
+		try {
+			init();
+		} catch (IllegalStateException ex) {
+			throw new IOException(ex.getMessage(), ex.getCause());
+		}
+	}
+
+	/**
+	 * Loads profile from memory mapped file.
+	 *
+	 * @see #ICCProfile(ByteBuffer)
+	 */
+	public static ICCProfile map(File file) throws IOException {
+		return new ICCProfile(mapFile(file));
+	}
 
+	static ByteBuffer mapFile(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			in.close();
+		}
+	}
+
+	private void init() {
 		Tag red = getTag(TagType.RED_MATRIX_COLUMN_SIG);
 		Tag green = getTag(TagType.GREEN_MATRIX_COLUMN_SIG);
 		Tag blue = getTag(TagType.BLUE_MATRIX_COLUMN_SIG);
@@ -95,7 +202,7 @@ public class ICCProfile {
 		redTRC = (ICurve) getTag(TagType.RED_TRC_SIG);
 		greenTRC = (ICurve) getTag(TagType.GREEN_TRC_SIG);
 		blueTRC = (ICurve) getTag(TagType.BLUE_TRC_SIG);
-		grayTRC = (ICurve) getTag(TagType.BLUE_TRC_SIG);
+		grayTRC = (ICurve) getTag(TagType.GRAY_TRC_SIG);
 
 		if (red != null) {
 			XYZ redxyz = (XYZ) red;
@@ -119,10 +226,34 @@ public class ICCProfile {
 		}
 	}
 
+	/**
+	 * Returns tag with given signature. Tags are decoded on first request.
+	 *
+	 * @return tag or null if profile has no such tag or tag type is not
+	 *         supported
+	 * @throws IllegalStateException
+	 *             if tag data can't be read (corrupt profile)
+	 */
 	public Tag getTag(TagType tagType) {
 		return tagTable.getTag(tagType);
 	}
 
+	/**
+	 * Decodes all tags of profile now instead of on first request.
+	 */
+	public void preloadAll() {
+		tagTable.preloadAll();
+	}
+
+	/**
+	 * Decodes all tags of profile in parallel on <code>executor</code> and
+	 * waits until they are done. Useful for large profiles with several
+	 * multi-megabyte CLUTs.
+	 */
+	public void preloadAll(Executor executor) throws InterruptedException {
+		tagTable.preloadAll(executor);
+	}
+
 	public float[][] getMatrix() {
 		float[][] m = new float[3][3];
 
@@ -145,15 +276,15 @@ public class ICCProfile {
 	}
 
 	public float[] getRedColumn() {
-		return redColumn;
+		return redColumn.clone();
 	}
 
 	public float[] getGreenColumn() {
-		return greenColumn;
+		return greenColumn.clone();
 	}
 
 	public float[] getBlueColumn() {
-		return blueColumn;
+		return blueColumn.clone();
 	}
 
 	public float[] getWhitePoint() {
@@ -237,18 +368,198 @@ public class ICCProfile {
 		return header.profileID;
 	}
 
+	/**
+	 * Matrix/TRC transformer if profile has matrix/TRC tags, otherwise
+	 * perceptual LUT transformer. ColorTransformer is created once and shared
+	 * between callers.
+	 */
 	public ColorTransformer getColorTransformer() {
+		ColorTransformer ct = colorTransformer;
+		if (ct == null) {
+			ct = getMatrixTransformer();
+			if (ct == null) {
+				ct = getColorTransformer(RenderingIntent.Perceptual, InterpolationType.TETRAHEDRAL);
+			}
+			colorTransformer = ct;
+		}
+		return ct;
+	}
+
+	/**
+	 * @see #getColorTransformer(RenderingIntent, InterpolationType)
+	 */
+	public ColorTransformer getColorTransformer(RenderingIntent intent) {
+		return getColorTransformer(intent, InterpolationType.TETRAHEDRAL);
+	}
+
+	/**
+	 * Transformer which uses AToB/BToA tags for given rendering intent
+	 * (AToB0/BToA0 if tags for intent are missing). If profile has only one
+	 * direction, the other one is taken from matrix/TRC tags (XYZ PCS only);
+	 * if profile has no usable AToB/BToA tags matrix/TRC transformer is
+	 * returned (null if there is none).
+	 * <p>
+	 * ICC-absolute colorimetric intent uses colorimetric tags, PCS values are
+	 * scaled by media white point relative to D50. Profiles without media
+	 * white point and gray TRC profiles give media-relative values.
+	 */
+	public ColorTransformer getColorTransformer(RenderingIntent intent, InterpolationType interpolation) {
+		int index = intentIndex(intent) * 2 + interpolation.ordinal();
+		synchronized (lutTransformers) {
+			ColorTransformer ct = lutTransformers[index];
+			if (ct == null) {
+				ct = createLutTransformer(intent, interpolation);
+				if (ct == null) {
+					ct = getMatrixTransformer(intent);
+				}
+				lutTransformers[index] = ct;
+			}
+			return ct;
+		}
+	}
+
+	private static int intentIndex(RenderingIntent intent) {
+		switch (intent) {
+		case Relative:
+			return 1;
+		case Saturation:
+			return 2;
+		case Absolute:
+			return 3;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * @return matrix/TRC transformer (created once and shared by all intents)
+	 *         or null if profile has no matrix/TRC tags
+	 */
+	private synchronized ColorTransformer getMatrixTransformer() {
+		if (!matrixTransformerCreated) {
+			matrixTransformer = createColorTransformer();
+			matrixTransformerCreated = true;
+		}
+		return matrixTransformer;
+	}
+
+	/**
+	 * @return matrix/TRC transformer for given intent, for ICC-absolute
+	 *         colorimetric intent RGB matrix columns are scaled by media white
+	 *         point
+	 */
+	private synchronized ColorTransformer getMatrixTransformer(RenderingIntent intent) {
+		ColorTransformer ct = getMatrixTransformer();
+		float[] scale = getAbsoluteScale();
+		if (intent != RenderingIntent.Absolute || scale == null || !(ct instanceof ColorTransformer.CT3)) {
+			return ct;
+		}
+		if (absoluteMatrixTransformer == null) {
+			float[] red = new float[3];
+			float[] green = new float[3];
+			float[] blue = new float[3];
+			for (int i = 0; i < 3; i++) {
+				red[i] = redColumn[i] * scale[i];
+				green[i] = greenColumn[i] * scale[i];
+				blue[i] = blueColumn[i] * scale[i];
+			}
+			absoluteMatrixTransformer = new ColorTransformer.CT3(red, green, blue, redTRC, greenTRC, blueTRC);
+		}
+		return absoluteMatrixTransformer;
+	}
+
+	/**
+	 * @return media white point relative to D50 (factors which convert
+	 *         media-relative XYZ to ICC-absolute) or null if profile has no
+	 *         media white point or it is D50 (s15Fixed16 precision)
+	 */
+	private float[] getAbsoluteScale() {
+		if (whitePoint == null) {
+			return null;
+		}
+		float[] scale = { whitePoint[0] / ICC_Transform.D50_X, whitePoint[1], whitePoint[2] / ICC_Transform.D50_Z };
+		for (int i = 0; i < 3; i++) {
+			if (Math.abs(scale[i] - 1) > 1f / 0x8000) {
+				return scale;
+			}
+		}
+		return null;
+	}
+
+	private ColorTransformer createColorTransformer() {
 		int cs = header.colorSpaceType.getJavaColorSpace();
 		int pcs = header.profileConnectionSpace.getJavaColorSpace();
 		if (cs == ColorSpace.TYPE_RGB && (pcs == ColorSpace.TYPE_XYZ || pcs == ColorSpace.TYPE_Lab)) {
-			return new ColorTransformer.CT3(redColumn, greenColumn, blueColumn, redTRC, greenTRC, blueTRC);
+			if (redColumn != null && greenColumn != null && blueColumn != null && redTRC != null && greenTRC != null && blueTRC != null) {
+				return new ColorTransformer.CT3(redColumn, greenColumn, blueColumn, redTRC, greenTRC, blueTRC);
+			}
 		}
-		if (cs == ColorSpace.TYPE_GRAY) {
+		if (cs == ColorSpace.TYPE_GRAY && grayTRC != null) {
 			return new ColorTransformer.CT1(grayTRC);
 		}
 		return null;
 	}
 
+	private ColorTransformer createLutTransformer(RenderingIntent intent, InterpolationType interpolation) {
+		TagType aToB, bToA;
+		switch (intent) {
+		case Relative:
+		case Absolute:
+			aToB = TagType.A_TO_B1_SIG;
+			bToA = TagType.B_TO_A1_SIG;
+			break;
+		case Saturation:
+			aToB = TagType.A_TO_B2_SIG;
+			bToA = TagType.B_TO_A2_SIG;
+			break;
+		default:
+			aToB = TagType.A_TO_B0_SIG;
+			bToA = TagType.B_TO_A0_SIG;
+		}
+		Tag a = getLut(aToB, TagType.A_TO_B0_SIG);
+		Tag b = getLut(bToA, TagType.B_TO_A0_SIG);
+		if (a == null && b == null) {
+			return null;
+		}
+		boolean labPCS = header.profileConnectionSpace.getJavaColorSpace() == ColorSpace.TYPE_Lab;
+		ColorTransformer fallback = null;
+		if (a == null || b == null) {
+			// matrix/TRC transformer works with XYZ PCS only
+			fallback = getMatrixTransformer(intent);
+			if (fallback == null || labPCS || fallback.getNumPCSComponents() != 3) {
+				return null;
+			}
+		}
+		float[] absolute = intent == RenderingIntent.Absolute ? getAbsoluteScale() : null;
+		return new LutTransformer(a, b, getNumComponents(), labPCS, interpolation, fallback, absolute);
+	}
+
+	/**
+	 * @return lut8, lut16, lutAtoB or lutBtoA tag
+	 */
+	private Tag getLut(TagType tagType, TagType fallback) {
+		Tag tag = getTag(tagType);
+		if (!isLut(tag)) {
+			tag = getTag(fallback);
+		}
+		return isLut(tag) ? tag : null;
+	}
+
+	private static boolean isLut(Tag tag) {
+		return tag instanceof Lut || tag instanceof LutAtoB;
+	}
+
+	/**
+	 * Profile digest: header profile ID if set, otherwise MD5 computed as
+	 * described in ICC specification (profile flags, rendering intent and
+	 * profile ID fields set to zero).
+	 *
+	 * @return 16 byte digest
+	 */
+	public byte[] getDigest() throws IOException {
+		return digest.clone();
+	}
+
 	private String description;
 
 	public String getProfileDescription() {
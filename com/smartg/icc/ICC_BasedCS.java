@@ -33,41 +33,63 @@ import java.awt.color.ColorSpace;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import com.smartg.color.ReferenceWhite;
-
+/**
+ * ColorSpace backed by ICC profile. All conversions use transformer for
+ * rendering intent from profile header (AToB/BToA tags if present, otherwise
+ * matrix/TRC), so {@link #toRGB(float[])} and {@link #toCIEXYZ(float[])}
+ * agree with each other.
+ */
 public class ICC_BasedCS extends ColorSpace {
 
     private static final long serialVersionUID = 5590636058186378516L;
 
-    private static final double KAPPA = 24389.0 / 27.0;
-    private static final double ETA = 216.0 / 24389.0;
-    private static final double w = 1.0 / 3.0;
-
     private ICCProfile profile;
-    private ReferenceWhite refWhite;
+    private LabConverter lab;
     private ColorTransformer transformer;
     private boolean isLabPCS;
 
-    private ICCProfile rgbProfile = ICCProfile.createSRGB();
-    private ColorTransformer rgbTransformer = rgbProfile.getColorTransformer();
-    private ReferenceWhite rgbRefWhite = new ReferenceWhite(rgbProfile.getWhitePoint());
-    private boolean isLabPCS_2 = rgbProfile.getProfileConnectionSpace().getJavaColorSpace() == ColorSpace.TYPE_Lab;
+    /**
+     * sRGB reference shared by all instances, created on first use.
+     */
+    private static class SRGB {
+	static final ICCProfile profile = ICCProfile.getSRGB();
+	static final ColorTransformer transformer = profile.getColorTransformer(profile.getRenderingIntent());
+	static final LabConverter lab = new LabConverter(profile.getWhitePoint());
+	static final boolean isLabPCS = profile.getProfileConnectionSpace().getJavaColorSpace() == ColorSpace.TYPE_Lab;
+    }
 
     public static ICC_BasedCS getSRGB() {
-	return new ICC_BasedCS(ICCProfile.createSRGB());
+	return new ICC_BasedCS(ICCProfile.getSRGB());
     }
 
     public ICC_BasedCS(ICCProfile profile) {
 	super(profile.getColorSpaceType().getJavaColorSpace(), profile.getColorSpaceType().getNumComponents());
 	this.profile = profile;
-	this.refWhite = new ReferenceWhite(profile.getWhitePoint());
+	this.lab = new LabConverter(profile.getWhitePoint());
 	// transformer = profile.getColorTransformer();
 	isLabPCS = profile.getProfileConnectionSpace().getJavaColorSpace() == ColorSpace.TYPE_Lab;
     }
 
+    private ICC_Transform rgbTransform;
+
+    /**
+     * @return fused transform from this color space to sRGB or null if not
+     *         available
+     */
+    public ICC_Transform getRGBTransform() {
+	if (rgbTransform == null) {
+	    rgbTransform = ICC_Transform.create(profile, SRGB.profile, profile.getRenderingIntent());
+	}
+	return rgbTransform;
+    }
+
+    /**
+     * @return transformer for rendering intent from profile header, the same
+     *         one {@link #getRGBTransform()} uses
+     */
     public ColorTransformer getTransformer() {
 	if (transformer == null) {
-	    transformer = profile.getColorTransformer();
+	    transformer = profile.getColorTransformer(profile.getRenderingIntent());
 	}
 	return transformer;
     }
@@ -79,7 +101,7 @@ public class ICC_BasedCS extends ColorSpace {
 
     public final float[] fromCIEXYZ(float[] src, float[] dest) {
 	if (isLabPCS) {
-	    xyz2lab(src[0], src[1], src[2], dest, refWhite);
+	    lab.xyz2lab(src, dest);
 	    return getTransformer().fromPCS(dest, dest);
 	}
 	return getTransformer().fromPCS(src, dest);
@@ -87,13 +109,13 @@ public class ICC_BasedCS extends ColorSpace {
 
     @Override
     public final float[] fromRGB(float[] rgbvalue) {
-	return fromRGB(rgbvalue, new float[rgbProfile.getNumComponents()]);
+	return fromRGB(rgbvalue, new float[SRGB.profile.getNumComponents()]);
     }
 
     public final float[] fromRGB(float[] rgbvalue, float[] dst) {
-	rgbTransformer.toPCS(rgbvalue, dst);
-	if (isLabPCS_2) {
-	    lab2xyz(dst[0], dst[1], dst[2], dst, rgbRefWhite);
+	SRGB.transformer.toPCS(rgbvalue, dst);
+	if (SRGB.isLabPCS) {
+	    SRGB.lab.lab2xyz(dst, dst);
 	    return fromCIEXYZ(dst, dst);
 	}
 	return fromCIEXYZ(rgbvalue, dst);
@@ -112,82 +134,31 @@ public class ICC_BasedCS extends ColorSpace {
 	    Logger.getGlobal().log(Level.WARNING, "No transformer found for ICC_BasedCS");
 	}
 	if (isLabPCS) {
-	    lab2xyz(dst[0], dst[1], dst[2], dst, refWhite);
+	    lab.lab2xyz(dst, dst);
 	}
 	return dst;
     }
 
     @Override
     public final float[] toRGB(float[] colorvalue) {
-	return toRGB(colorvalue, new float[rgbProfile.getNumComponents()]);
+	return toRGB(colorvalue, new float[SRGB.profile.getNumComponents()]);
     }
 
     public final float[] toRGB(float[] colorvalue, float[] dest) {
+	ICC_Transform t = getRGBTransform();
+	if (t != null) {
+	    return t.transform(colorvalue, dest);
+	}
 	float[] ciexyz = toCIEXYZ(colorvalue, dest);
-	if (isLabPCS_2) {
-	    xyz2lab(ciexyz[0], ciexyz[1], ciexyz[2], dest, rgbRefWhite);
-	    rgbTransformer.fromPCS(dest, dest);
+	if (SRGB.isLabPCS) {
+	    SRGB.lab.xyz2lab(ciexyz, dest);
+	    SRGB.transformer.fromPCS(dest, dest);
 	} else {
-	    rgbTransformer.fromPCS(ciexyz, dest);
+	    SRGB.transformer.fromPCS(ciexyz, dest);
 	}
 	return dest;
     }
 
-    private final void lab2xyz(float L, float a, float b, float[] dest, ReferenceWhite refWhite) {
-	double fy = (L + 16) / 116;
-	double fx = (a / 500) + fy;
-	double fz = fy - (b / 200);
-
-	double yr = (L > 8.0 ? fy * fy * fy : L / KAPPA);
-
-	double xr = fx * fx * fx;
-	if (xr <= ETA) {
-	    xr = (116 * fx - 16) / KAPPA;
-	}
-
-	double zr = fz * fz * fz;
-	if (zr <= ETA) {
-	    zr = (116 * fz - 16) / KAPPA;
-	}
-	dest[0] = (float) (xr * refWhite.Xn);
-	dest[1] = (float) (yr * refWhite.Yn);
-	dest[2] = (float) (zr * refWhite.Zn);
-    }
-
-    private final void xyz2lab(float X, float Y, float Z, float[] dest, ReferenceWhite refWhite) {
-	double xr = X / refWhite.Xn;
-	double yr = Y / refWhite.Yn;
-	double zr = Z / refWhite.Zn;
-
-	double fx, fy, fz;
-
-	if (xr > ETA) {
-	    fx = Math.pow(xr, w);
-	} else {
-	    fx = (KAPPA * xr + 16.0) / 116.0;
-	}
-
-	if (yr > ETA) {
-	    fy = Math.pow(yr, w);
-	} else {
-	    fy = (KAPPA * yr + 16.0) / 116.0;
-	}
-
-	if (zr > ETA) {
-	    fz = Math.pow(zr, w);
-	} else {
-	    fz = (KAPPA * zr + 16.0) / 116.0;
-	}
-
-	float L = (float) (116 * fy - 16);
-	float a = (float) (500 * (fx - fy));
-	float b = (float) (200 * (fy - fz));
-
-	dest[0] = L;
-	dest[1] = a;
-	dest[2] = b;
-    }
-
     public ICCProfile getProfile() {
 	return profile;
     }
@@ -31,6 +31,10 @@ package com.smartg.icc;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.NumberFormat;
 import java.util.logging.Logger;
 
@@ -96,6 +100,98 @@ class ICC_Header {
 	in.read(reserved);
     }
 
+    static final int PROFILE_FLAGS_OFFSET = 44;
+    static final int RENDERING_INTENT_OFFSET = 64;
+    static final int PROFILE_ID_OFFSET = 84;
+    static final int HEADER_SIZE = 128;
+
+    /**
+     * Computes profile ID (MD5) of profile in remaining bytes of
+     * <code>data</code> without copying it. Profile flags, rendering intent
+     * and profile ID fields are treated as zero. Position of
+     * <code>data</code> is not changed.
+     */
+    static byte[] computeProfileID(ByteBuffer data) {
+	MessageDigest md5;
+	try {
+	    md5 = MessageDigest.getInstance("MD5");
+	} catch (NoSuchAlgorithmException ex) {
+	    throw new IllegalStateException(ex);
+	}
+	int offset = data.position();
+	int length = data.remaining();
+	byte[] zero = new byte[16];
+	md5.update(range(data, offset, PROFILE_FLAGS_OFFSET));
+	md5.update(zero, 0, 4);
+	md5.update(range(data, offset + PROFILE_FLAGS_OFFSET + 4, RENDERING_INTENT_OFFSET - PROFILE_FLAGS_OFFSET - 4));
+	md5.update(zero, 0, 4);
+	md5.update(range(data, offset + RENDERING_INTENT_OFFSET + 4, PROFILE_ID_OFFSET - RENDERING_INTENT_OFFSET - 4));
+	md5.update(zero, 0, 16);
+	md5.update(range(data, offset + PROFILE_ID_OFFSET + 16, length - PROFILE_ID_OFFSET - 16));
+	return md5.digest();
+    }
+
+    /**
+     * @return remaining bytes of <code>data</code> limited to profile size
+     *         stored in header (padding after profile is not hashed)
+     * @throws IOException
+     *             if profile size is smaller than header or larger than
+     *             remaining bytes
+     */
+    static ByteBuffer profileData(ByteBuffer data) throws IOException {
+	ByteBuffer b = data.duplicate().order(ByteOrder.BIG_ENDIAN);
+	if (b.remaining() < HEADER_SIZE) {
+	    throw new IOException("Profile too short: " + b.remaining() + " bytes");
+	}
+	long size = b.getInt(b.position()) & 0xFFFFFFFFL;
+	if (size < HEADER_SIZE || size > b.remaining()) {
+	    throw new IOException("Invalid profile size: " + size + " (" + b.remaining() + " bytes available)");
+	}
+	b.limit(b.position() + (int) size);
+	return b;
+    }
+
+    private static ByteBuffer range(ByteBuffer data, int offset, int length) {
+	ByteBuffer b = data.duplicate();
+	b.limit(offset + length);
+	b.position(offset);
+	return b;
+    }
+
+    /**
+     * @return profile ID stored in header of profile in remaining bytes of
+     *         <code>data</code> or computed profile ID if header field is
+     *         zero
+     */
+    static byte[] getProfileID(ByteBuffer data) throws IOException {
+	ByteBuffer profile = profileData(data);
+	byte[] id = new byte[16];
+	ByteBuffer b = profile.duplicate();
+	b.position(profile.position() + PROFILE_ID_OFFSET);
+	b.get(id);
+	if (isZero(id)) {
+	    return computeProfileID(profile);
+	}
+	return id;
+    }
+
+    /**
+     * @return profile ID stored in header of profile in <code>data</code> or
+     *         computed profile ID if header field is zero
+     */
+    static byte[] getProfileID(byte[] data, int offset, int length) throws IOException {
+	return getProfileID(ByteBuffer.wrap(data, offset, length).slice());
+    }
+
+    static boolean isZero(byte[] b) {
+	for (int i = 0; i < b.length; i++) {
+	    if (b[i] != 0) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
     static NumberFormat getFormat() {
 	return format;
     }
@@ -0,0 +1,736 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.smartg.icc;
+
+import java.awt.color.ColorSpace;
+
+import com.smartg.icc.ColorTransformer.CT3;
+import com.smartg.icc.tag.Tag.ICurve;
+
+/**
+ * Device to device transform between two ICC profiles.
+ * <p>
+ * If both profiles are matrix/TRC profiles, PCS conversions cancel out and
+ * both matrices are folded into a single 3x3 matrix, so that each pixel costs
+ * three curve lookups, one matrix multiplication and three inverse lookups.
+ * Otherwise source and destination transformers are chained through PCS.
+ */
+public abstract class ICC_Transform {
+
+    private final ICCProfile source;
+    private final ICCProfile destination;
+    private final RenderingIntent intent;
+
+    protected ICC_Transform(ICCProfile source, ICCProfile destination, RenderingIntent intent) {
+	this.source = source;
+	this.destination = destination;
+	this.intent = intent;
+    }
+
+    /**
+     * Creates transform from <code>source</code> to <code>destination</code>.
+     *
+     * @return transform or null if no ColorTransformer available for one of
+     *         profiles
+     */
+    public static ICC_Transform create(ICCProfile source, ICCProfile destination, RenderingIntent intent) {
+	ColorTransformer src = source.getColorTransformer(intent);
+	ColorTransformer dst = destination.getColorTransformer(intent);
+	if (src == null || dst == null) {
+	    return null;
+	}
+	if (src instanceof CT3 && dst instanceof CT3) {
+	    return new MatrixShaper(source, destination, intent, (CT3) src, (CT3) dst);
+	}
+	return new Chain(source, destination, intent, src, dst);
+    }
+
+    public ICCProfile getSource() {
+	return source;
+    }
+
+    public ICCProfile getDestination() {
+	return destination;
+    }
+
+    public RenderingIntent getRenderingIntent() {
+	return intent;
+    }
+
+    public abstract int getNumInputComponents();
+
+    public abstract int getNumOutputComponents();
+
+    /**
+     * Transforms <code>count</code> interleaved pixels. Strides are the
+     * distance (in array elements) between two consecutive pixels.
+     */
+    public abstract void transform(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int count);
+
+    public float[] transform(float[] src, float[] dst) {
+	transform(src, 0, getNumInputComponents(), dst, 0, getNumOutputComponents(), 1);
+	return dst;
+    }
+
+    /**
+     * Transforms <code>count</code> pixels with unsigned 8 bit samples.
+     */
+    public void transform(byte[] src, int srcOffset, int srcStride, byte[] dst, int dstOffset, int dstStride, int count) {
+	int inCount = getNumInputComponents();
+	int outCount = getNumOutputComponents();
+	int chunk = Math.min(count, ColorTransformer.CHUNK_SIZE);
+	float[] s = new float[chunk * inCount];
+	float[] d = new float[chunk * outCount];
+	while (count > 0) {
+	    int n = Math.min(count, chunk);
+	    for (int i = 0, k = 0, off = srcOffset; i < n; i++, off += srcStride) {
+		for (int c = 0; c < inCount; c++) {
+		    s[k++] = (src[off + c] & 0xFF) / 255f;
+		}
+	    }
+	    transform(s, 0, inCount, d, 0, outCount, n);
+	    for (int i = 0, k = 0, off = dstOffset; i < n; i++, off += dstStride) {
+		for (int c = 0; c < outCount; c++) {
+		    dst[off + c] = (byte) LookupTables.quantize(d[k++], 255);
+		}
+	    }
+	    srcOffset += n * srcStride;
+	    dstOffset += n * dstStride;
+	    count -= n;
+	}
+    }
+
+    /**
+     * Transforms <code>count</code> pixels with unsigned 16 bit samples.
+     */
+    public void transform(short[] src, int srcOffset, int srcStride, short[] dst, int dstOffset, int dstStride, int count) {
+	int inCount = getNumInputComponents();
+	int outCount = getNumOutputComponents();
+	int chunk = Math.min(count, ColorTransformer.CHUNK_SIZE);
+	float[] s = new float[chunk * inCount];
+	float[] d = new float[chunk * outCount];
+	while (count > 0) {
+	    int n = Math.min(count, chunk);
+	    for (int i = 0, k = 0, off = srcOffset; i < n; i++, off += srcStride) {
+		for (int c = 0; c < inCount; c++) {
+		    s[k++] = (src[off + c] & 0xFFFF) / 65535f;
+		}
+	    }
+	    transform(s, 0, inCount, d, 0, outCount, n);
+	    for (int i = 0, k = 0, off = dstOffset; i < n; i++, off += dstStride) {
+		for (int c = 0; c < outCount; c++) {
+		    dst[off + c] = (short) LookupTables.quantize(d[k++], 65535);
+		}
+	    }
+	    srcOffset += n * srcStride;
+	    dstOffset += n * dstStride;
+	    count -= n;
+	}
+    }
+
+    /**
+     * Transforms <code>count</code> packed ARGB pixels (RGB to RGB only).
+     * Alpha is copied from source.
+     */
+    public void transform(int[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+	if (getNumInputComponents() != 3 || getNumOutputComponents() != 3) {
+	    throw new UnsupportedOperationException("Packed ARGB requires RGB to RGB transform");
+	}
+	int chunk = Math.min(count, ColorTransformer.CHUNK_SIZE);
+	float[] s = new float[chunk * 3];
+	float[] d = new float[chunk * 3];
+	while (count > 0) {
+	    int n = Math.min(count, chunk);
+	    for (int i = 0, k = 0; i < n; i++) {
+		int argb = src[srcOffset + i];
+		s[k++] = ((argb >> 16) & 0xFF) / 255f;
+		s[k++] = ((argb >> 8) & 0xFF) / 255f;
+		s[k++] = (argb & 0xFF) / 255f;
+	    }
+	    transform(s, 0, 3, d, 0, 3, n);
+	    for (int i = 0, k = 0; i < n; i++, k += 3) {
+		int r = LookupTables.quantize(d[k], 255);
+		int g = LookupTables.quantize(d[k + 1], 255);
+		int b = LookupTables.quantize(d[k + 2], 255);
+		dst[dstOffset + i] = (src[srcOffset + i] & 0xFF000000) | (r << 16) | (g << 8) | b;
+	    }
+	    srcOffset += n;
+	    dstOffset += n;
+	    count -= n;
+	}
+    }
+
+    /**
+     * Samples this transform once on a regular grid with
+     * <code>gridPoints</code> points per axis (e.g. 17 or 33 for RGB, 9 to 17
+     * for CMYK). Returned transform uses tetrahedral (3 inputs) or
+     * pentachoron (4 inputs) interpolation, so its cost per pixel doesn't
+     * depend on complexity of source and destination profiles.
+     */
+    public ICC_Transform bake(int gridPoints) {
+	int inputs = getNumInputComponents();
+	if (inputs != 3 && inputs != 4) {
+	    throw new UnsupportedOperationException("Only 3 or 4 input components supported, got " + inputs);
+	}
+	if (gridPoints < 2) {
+	    throw new IllegalArgumentException("gridPoints: " + gridPoints);
+	}
+	if (inputs == 4) {
+	    return new Baked4D(this, gridPoints);
+	}
+	return new Baked3D(this, gridPoints);
+    }
+
+    /**
+     * Builds lookup tables used for given pixel format in advance, so that
+     * first transform call does not pay for it.
+     */
+    void prepare(PixelFormat format) {
+    }
+
+    /**
+     * Transform baked into 3D LUT.
+     */
+    static final class Baked3D extends ICC_Transform {
+	final int gridPoints;
+	final int outputs;
+	final float[] table;
+
+	// cell index and fraction for each 8 bit input value
+	final int[] cell8 = new int[256];
+	final float[] fraction8 = new float[256];
+
+	Baked3D(ICC_Transform t, int n) {
+	    super(t.getSource(), t.getDestination(), t.getRenderingIntent());
+	    gridPoints = n;
+	    outputs = t.getNumOutputComponents();
+
+	    int size = n * n * n;
+	    float[] grid = new float[size * 3];
+	    float scale = 1f / (n - 1);
+	    int p = 0;
+	    for (int i = 0; i < n; i++) {
+		for (int j = 0; j < n; j++) {
+		    for (int k = 0; k < n; k++) {
+			grid[p++] = i * scale;
+			grid[p++] = j * scale;
+			grid[p++] = k * scale;
+		    }
+		}
+	    }
+	    table = new float[size * outputs];
+	    t.transform(grid, 0, 3, table, 0, outputs, size);
+
+	    for (int v = 0; v < 256; v++) {
+		float pos = Interpolation.position(v / 255f, n);
+		int c = Interpolation.cell(pos, n);
+		cell8[v] = c;
+		fraction8[v] = pos - c;
+	    }
+	}
+
+	public int getGridPoints() {
+	    return gridPoints;
+	}
+
+	@Override
+	public int getNumInputComponents() {
+	    return 3;
+	}
+
+	@Override
+	public int getNumOutputComponents() {
+	    return outputs;
+	}
+
+	@Override
+	public void transform(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int count) {
+	    final float[] table = this.table;
+	    final int n = gridPoints;
+	    final int outputs = this.outputs;
+	    Interpolation.Cell cell = new Interpolation.Cell(3);
+	    for (int i = 0; i < count; i++) {
+		int base = Interpolation.tetrahedral(n, n, n, outputs, src[srcOffset], src[srcOffset + 1], src[srcOffset + 2], cell);
+		Interpolation.interpolate(table, base, cell, outputs, dst, dstOffset);
+		srcOffset += srcStride;
+		dstOffset += dstStride;
+	    }
+	}
+
+	@Override
+	public void transform(byte[] src, int srcOffset, int srcStride, byte[] dst, int dstOffset, int dstStride, int count) {
+	    final float[] table = this.table;
+	    final int[] cell = cell8;
+	    final float[] fraction = fraction8;
+	    final int outputs = this.outputs;
+	    final int s2 = outputs;
+	    final int s1 = gridPoints * s2;
+	    final int s0 = gridPoints * s1;
+	    Interpolation.Cell tetrahedron = new Interpolation.Cell(3);
+	    float[] d = new float[outputs];
+	    for (int i = 0; i < count; i++) {
+		int r = src[srcOffset] & 0xFF;
+		int g = src[srcOffset + 1] & 0xFF;
+		int b = src[srcOffset + 2] & 0xFF;
+		int base = cell[r] * s0 + cell[g] * s1 + cell[b] * s2;
+		Interpolation.tetrahedral(s0, s1, s2, fraction[r], fraction[g], fraction[b], tetrahedron);
+		Interpolation.interpolate(table, base, tetrahedron, outputs, d, 0);
+		for (int c = 0; c < outputs; c++) {
+		    dst[dstOffset + c] = (byte) LookupTables.quantize(d[c], 255);
+		}
+		srcOffset += srcStride;
+		dstOffset += dstStride;
+	    }
+	}
+
+	@Override
+	public void transform(int[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+	    if (outputs != 3) {
+		super.transform(src, srcOffset, dst, dstOffset, count);
+		return;
+	    }
+	    final float[] table = this.table;
+	    final int[] cell = cell8;
+	    final float[] fraction = fraction8;
+	    final int s2 = 3;
+	    final int s1 = gridPoints * s2;
+	    final int s0 = gridPoints * s1;
+	    Interpolation.Cell tetrahedron = new Interpolation.Cell(3);
+	    float[] d = new float[3];
+	    for (int i = 0; i < count; i++) {
+		int argb = src[srcOffset + i];
+		int r = (argb >> 16) & 0xFF;
+		int g = (argb >> 8) & 0xFF;
+		int b = argb & 0xFF;
+		int base = cell[r] * s0 + cell[g] * s1 + cell[b] * s2;
+		Interpolation.tetrahedral(s0, s1, s2, fraction[r], fraction[g], fraction[b], tetrahedron);
+		Interpolation.interpolate(table, base, tetrahedron, 3, d, 0);
+		int dr = LookupTables.quantize(d[0], 255);
+		int dg = LookupTables.quantize(d[1], 255);
+		int db = LookupTables.quantize(d[2], 255);
+		dst[dstOffset + i] = (argb & 0xFF000000) | (dr << 16) | (dg << 8) | db;
+	    }
+	}
+    }
+
+    /**
+     * Transform with 4 inputs (CMYK) baked into 4D LUT.
+     */
+    static final class Baked4D extends ICC_Transform {
+	final int gridPoints;
+	final int outputs;
+	final float[] table;
+
+	// cell index and fraction for each 8 bit input value
+	final int[] cell8 = new int[256];
+	final float[] fraction8 = new float[256];
+
+	Baked4D(ICC_Transform t, int n) {
+	    super(t.getSource(), t.getDestination(), t.getRenderingIntent());
+	    gridPoints = n;
+	    outputs = t.getNumOutputComponents();
+
+	    int size = n * n * n * n;
+	    float[] grid = new float[size * 4];
+	    float scale = 1f / (n - 1);
+	    int p = 0;
+	    for (int c = 0; c < n; c++) {
+		for (int m = 0; m < n; m++) {
+		    for (int y = 0; y < n; y++) {
+			for (int k = 0; k < n; k++) {
+			    grid[p++] = c * scale;
+			    grid[p++] = m * scale;
+			    grid[p++] = y * scale;
+			    grid[p++] = k * scale;
+			}
+		    }
+		}
+	    }
+	    table = new float[size * outputs];
+	    t.transform(grid, 0, 4, table, 0, outputs, size);
+
+	    for (int v = 0; v < 256; v++) {
+		float pos = Interpolation.position(v / 255f, n);
+		int c = Interpolation.cell(pos, n);
+		cell8[v] = c;
+		fraction8[v] = pos - c;
+	    }
+	}
+
+	public int getGridPoints() {
+	    return gridPoints;
+	}
+
+	@Override
+	public int getNumInputComponents() {
+	    return 4;
+	}
+
+	@Override
+	public int getNumOutputComponents() {
+	    return outputs;
+	}
+
+	@Override
+	public void transform(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int count) {
+	    final float[] table = this.table;
+	    final int n = gridPoints;
+	    final int outputs = this.outputs;
+	    final int s3 = outputs;
+	    final int s2 = n * s3;
+	    final int s1 = n * s2;
+	    final int s0 = n * s1;
+	    Interpolation.Cell simplex = new Interpolation.Cell(4);
+	    for (int i = 0; i < count; i++) {
+		float p0 = Interpolation.position(src[srcOffset], n);
+		float p1 = Interpolation.position(src[srcOffset + 1], n);
+		float p2 = Interpolation.position(src[srcOffset + 2], n);
+		float p3 = Interpolation.position(src[srcOffset + 3], n);
+		int i0 = Interpolation.cell(p0, n);
+		int i1 = Interpolation.cell(p1, n);
+		int i2 = Interpolation.cell(p2, n);
+		int i3 = Interpolation.cell(p3, n);
+		int base = i0 * s0 + i1 * s1 + i2 * s2 + i3 * s3;
+		Interpolation.pentachoron(s0, s1, s2, s3, p0 - i0, p1 - i1, p2 - i2, p3 - i3, simplex);
+		Interpolation.interpolate(table, base, simplex, outputs, dst, dstOffset);
+		srcOffset += srcStride;
+		dstOffset += dstStride;
+	    }
+	}
+
+	@Override
+	public void transform(byte[] src, int srcOffset, int srcStride, byte[] dst, int dstOffset, int dstStride, int count) {
+	    final float[] table = this.table;
+	    final int[] cell = cell8;
+	    final float[] fraction = fraction8;
+	    final int outputs = this.outputs;
+	    final int s3 = outputs;
+	    final int s2 = gridPoints * s3;
+	    final int s1 = gridPoints * s2;
+	    final int s0 = gridPoints * s1;
+	    Interpolation.Cell simplex = new Interpolation.Cell(4);
+	    float[] d = new float[outputs];
+	    for (int i = 0; i < count; i++) {
+		int c = src[srcOffset] & 0xFF;
+		int m = src[srcOffset + 1] & 0xFF;
+		int y = src[srcOffset + 2] & 0xFF;
+		int k = src[srcOffset + 3] & 0xFF;
+		int base = cell[c] * s0 + cell[m] * s1 + cell[y] * s2 + cell[k] * s3;
+		Interpolation.pentachoron(s0, s1, s2, s3, fraction[c], fraction[m], fraction[y], fraction[k], simplex);
+		Interpolation.interpolate(table, base, simplex, outputs, d, 0);
+		for (int j = 0; j < outputs; j++) {
+		    dst[dstOffset + j] = (byte) LookupTables.quantize(d[j], 255);
+		}
+		srcOffset += srcStride;
+		dstOffset += dstStride;
+	    }
+	}
+    }
+
+    /**
+     * Fused transform between two matrix/TRC profiles.
+     */
+    static final class MatrixShaper extends ICC_Transform {
+	final CT3 src, dst;
+	final ICurve redTRC, greenTRC, blueTRC;
+	final ICurve redTRCi, greenTRCi, blueTRCi;
+	final float m00, m01, m02, m10, m11, m12, m20, m21, m22;
+
+	MatrixShaper(ICCProfile source, ICCProfile destination, RenderingIntent intent, CT3 src, CT3 dst) {
+	    super(source, destination, intent);
+	    this.src = src;
+	    this.dst = dst;
+
+	    redTRC = src.redTRC;
+	    greenTRC = src.greenTRC;
+	    blueTRC = src.blueTRC;
+
+	    redTRCi = dst.redTRCi;
+	    greenTRCi = dst.greenTRCi;
+	    blueTRCi = dst.blueTRCi;
+
+	    double[][] a = { { src.rX, src.gX, src.bX }, { src.rY, src.gY, src.bY }, { src.rZ, src.gZ, src.bZ } };
+	    double[][] b = { { dst.rXi, dst.gXi, dst.bXi }, { dst.rYi, dst.gYi, dst.bYi }, { dst.rZi, dst.gZi, dst.bZi } };
+	    float[] m = new float[9];
+	    for (int i = 0; i < 3; i++) {
+		for (int j = 0; j < 3; j++) {
+		    m[i * 3 + j] = (float) (b[i][0] * a[0][j] + b[i][1] * a[1][j] + b[i][2] * a[2][j]);
+		}
+	    }
+	    m00 = m[0];
+	    m01 = m[1];
+	    m02 = m[2];
+	    m10 = m[3];
+	    m11 = m[4];
+	    m12 = m[5];
+	    m20 = m[6];
+	    m21 = m[7];
+	    m22 = m[8];
+	}
+
+	@Override
+	void prepare(PixelFormat format) {
+	    src.prepare(format);
+	    dst.prepare(format);
+	}
+
+	@Override
+	public int getNumInputComponents() {
+	    return 3;
+	}
+
+	@Override
+	public int getNumOutputComponents() {
+	    return 3;
+	}
+
+	@Override
+	public void transform(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int count) {
+	    final ICurve rTRC = redTRC, gTRC = greenTRC, bTRC = blueTRC;
+	    final ICurve rTRCi = redTRCi, gTRCi = greenTRCi, bTRCi = blueTRCi;
+	    final float m00 = this.m00, m01 = this.m01, m02 = this.m02;
+	    final float m10 = this.m10, m11 = this.m11, m12 = this.m12;
+	    final float m20 = this.m20, m21 = this.m21, m22 = this.m22;
+
+	    for (int i = 0; i < count; i++) {
+		float r = rTRC.get(src[srcOffset]);
+		float g = gTRC.get(src[srcOffset + 1]);
+		float b = bTRC.get(src[srcOffset + 2]);
+
+		float deviceR = rTRCi.get(m00 * r + m01 * g + m02 * b);
+		float deviceG = gTRCi.get(m10 * r + m11 * g + m12 * b);
+		float deviceB = bTRCi.get(m20 * r + m21 * g + m22 * b);
+
+		dst[dstOffset] = deviceR > 1 ? 1 : (deviceR < 0 ? 0 : deviceR);
+		dst[dstOffset + 1] = deviceG > 1 ? 1 : (deviceG < 0 ? 0 : deviceG);
+		dst[dstOffset + 2] = deviceB > 1 ? 1 : (deviceB < 0 ? 0 : deviceB);
+
+		srcOffset += srcStride;
+		dstOffset += dstStride;
+	    }
+	}
+
+	@Override
+	public void transform(byte[] src, int srcOffset, int srcStride, byte[] dst, int dstOffset, int dstStride, int count) {
+	    ColorTransformer.Tables8 s8 = this.src.getTables8();
+	    ColorTransformer.Tables8 d8 = this.dst.getTables8();
+	    final float[] rT = s8.red, gT = s8.green, bT = s8.blue;
+	    final byte[] rTi = d8.redInverse, gTi = d8.greenInverse, bTi = d8.blueInverse;
+	    final float m00 = this.m00, m01 = this.m01, m02 = this.m02;
+	    final float m10 = this.m10, m11 = this.m11, m12 = this.m12;
+	    final float m20 = this.m20, m21 = this.m21, m22 = this.m22;
+
+	    for (int i = 0; i < count; i++) {
+		float r = rT[src[srcOffset] & 0xFF];
+		float g = gT[src[srcOffset + 1] & 0xFF];
+		float b = bT[src[srcOffset + 2] & 0xFF];
+
+		dst[dstOffset] = rTi[LookupTables.index8(m00 * r + m01 * g + m02 * b)];
+		dst[dstOffset + 1] = gTi[LookupTables.index8(m10 * r + m11 * g + m12 * b)];
+		dst[dstOffset + 2] = bTi[LookupTables.index8(m20 * r + m21 * g + m22 * b)];
+
+		srcOffset += srcStride;
+		dstOffset += dstStride;
+	    }
+	}
+
+	@Override
+	public void transform(int[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+	    ColorTransformer.Tables8 s8 = this.src.getTables8();
+	    ColorTransformer.Tables8 d8 = this.dst.getTables8();
+	    final float[] rT = s8.red, gT = s8.green, bT = s8.blue;
+	    final byte[] rTi = d8.redInverse, gTi = d8.greenInverse, bTi = d8.blueInverse;
+	    final float m00 = this.m00, m01 = this.m01, m02 = this.m02;
+	    final float m10 = this.m10, m11 = this.m11, m12 = this.m12;
+	    final float m20 = this.m20, m21 = this.m21, m22 = this.m22;
+
+	    for (int i = 0; i < count; i++) {
+		int argb = src[srcOffset + i];
+		float r = rT[(argb >> 16) & 0xFF];
+		float g = gT[(argb >> 8) & 0xFF];
+		float b = bT[argb & 0xFF];
+
+		int dr = rTi[LookupTables.index8(m00 * r + m01 * g + m02 * b)] & 0xFF;
+		int dg = gTi[LookupTables.index8(m10 * r + m11 * g + m12 * b)] & 0xFF;
+		int db = bTi[LookupTables.index8(m20 * r + m21 * g + m22 * b)] & 0xFF;
+
+		dst[dstOffset + i] = (argb & 0xFF000000) | (dr << 16) | (dg << 8) | db;
+	    }
+	}
+
+	@Override
+	public void transform(short[] src, int srcOffset, int srcStride, short[] dst, int dstOffset, int dstStride, int count) {
+	    ColorTransformer.Tables16 s16 = this.src.getTables16();
+	    ColorTransformer.Tables16 d16 = this.dst.getTables16();
+	    if (s16 == null || d16 == null) {
+		super.transform(src, srcOffset, srcStride, dst, dstOffset, dstStride, count);
+		return;
+	    }
+	    final float[] rT = s16.forward[0], gT = s16.forward[1], bT = s16.forward[2];
+	    final short[] rTi = d16.inverse[0], gTi = d16.inverse[1], bTi = d16.inverse[2];
+	    final float m00 = this.m00, m01 = this.m01, m02 = this.m02;
+	    final float m10 = this.m10, m11 = this.m11, m12 = this.m12;
+	    final float m20 = this.m20, m21 = this.m21, m22 = this.m22;
+
+	    for (int i = 0; i < count; i++) {
+		float r = rT[src[srcOffset] & 0xFFFF];
+		float g = gT[src[srcOffset + 1] & 0xFFFF];
+		float b = bT[src[srcOffset + 2] & 0xFFFF];
+
+		dst[dstOffset] = rTi[LookupTables.index16(m00 * r + m01 * g + m02 * b)];
+		dst[dstOffset + 1] = gTi[LookupTables.index16(m10 * r + m11 * g + m12 * b)];
+		dst[dstOffset + 2] = bTi[LookupTables.index16(m20 * r + m21 * g + m22 * b)];
+
+		srcOffset += srcStride;
+		dstOffset += dstStride;
+	    }
+	}
+    }
+
+    /**
+     * Generic transform: source device -&gt; PCS -&gt; destination device. PCS
+     * conversion is done only if profiles use different PCS.
+     */
+    static final class Chain extends ICC_Transform {
+	final ColorTransformer src, dst;
+	final int srcPCS, dstPCS;
+	final boolean srcLab, dstLab;
+
+	Chain(ICCProfile source, ICCProfile destination, RenderingIntent intent, ColorTransformer src, ColorTransformer dst) {
+	    super(source, destination, intent);
+	    this.src = src;
+	    this.dst = dst;
+	    srcPCS = src.getNumPCSComponents();
+	    dstPCS = dst.getNumPCSComponents();
+	    srcLab = source.getProfileConnectionSpace().getJavaColorSpace() == ColorSpace.TYPE_Lab;
+	    dstLab = destination.getProfileConnectionSpace().getJavaColorSpace() == ColorSpace.TYPE_Lab;
+	}
+
+	@Override
+	void prepare(PixelFormat format) {
+	    src.prepare(format);
+	    dst.prepare(format);
+	}
+
+	@Override
+	public int getNumInputComponents() {
+	    return src.getNumComponents();
+	}
+
+	@Override
+	public int getNumOutputComponents() {
+	    return dst.getNumComponents();
+	}
+
+	@Override
+	public void transform(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int count) {
+	    int chunk = Math.min(count, ColorTransformer.CHUNK_SIZE);
+	    int pcsStride = Math.max(3, srcPCS);
+	    float[] pcs = new float[chunk * pcsStride];
+	    float[] tmp = new float[3];
+	    while (count > 0) {
+		int n = Math.min(count, chunk);
+		this.src.toPCS(src, srcOffset, srcStride, pcs, 0, pcsStride, n);
+		if (srcLab != dstLab || srcPCS != dstPCS) {
+		    for (int i = 0, k = 0; i < n; i++, k += pcsStride) {
+			convertPCS(pcs, k, tmp);
+		    }
+		}
+		this.dst.fromPCS(pcs, 0, pcsStride, dst, dstOffset, dstStride, n);
+		srcOffset += n * srcStride;
+		dstOffset += n * dstStride;
+		count -= n;
+	    }
+	}
+
+	@Override
+	public void transform(byte[] src, int srcOffset, int srcStride, byte[] dst, int dstOffset, int dstStride, int count) {
+	    int chunk = Math.min(count, ColorTransformer.CHUNK_SIZE);
+	    int pcsStride = Math.max(3, srcPCS);
+	    float[] pcs = new float[chunk * pcsStride];
+	    float[] tmp = new float[3];
+	    while (count > 0) {
+		int n = Math.min(count, chunk);
+		this.src.toPCS(src, srcOffset, srcStride, pcs, 0, pcsStride, n);
+		if (srcLab != dstLab || srcPCS != dstPCS) {
+		    for (int j = 0, k = 0; j < n; j++, k += pcsStride) {
+			convertPCS(pcs, k, tmp);
+		    }
+		}
+		this.dst.fromPCS(pcs, 0, pcsStride, dst, dstOffset, dstStride, n);
+		srcOffset += n * srcStride;
+		dstOffset += n * dstStride;
+		count -= n;
+	    }
+	}
+
+	private void convertPCS(float[] pcs, int k, float[] tmp) {
+	    if (srcPCS == 1) {
+		// gray PCS holds only Y (or L* / 100), expand to D50 XYZ
+		float y = pcs[k];
+		if (srcLab) {
+		    tmp[0] = y * 100;
+		    tmp[1] = 0;
+		    tmp[2] = 0;
+		    PCS_LAB.lab2xyz(tmp, tmp);
+		    y = tmp[1];
+		}
+		tmp[0] = y * D50_X;
+		tmp[1] = y;
+		tmp[2] = y * D50_Z;
+	    } else if (srcLab) {
+		PCS_LAB.lab2xyz(pcs, k, 3, tmp, 0, 3, 1);
+	    } else {
+		tmp[0] = pcs[k];
+		tmp[1] = pcs[k + 1];
+		tmp[2] = pcs[k + 2];
+	    }
+	    if (dstLab) {
+		PCS_LAB.xyz2lab(tmp, tmp);
+	    }
+	    if (dstPCS == 1) {
+		// gray PCS is normalized, L* to [0, 1]
+		pcs[k] = dstLab ? tmp[0] / 100 : tmp[1];
+	    } else {
+		pcs[k] = tmp[0];
+		pcs[k + 1] = tmp[1];
+		pcs[k + 2] = tmp[2];
+	    }
+	}
+    }
+
+    static final float D50_X = 0.9642f;
+    static final float D50_Z = 0.8249f;
+
+    /**
+     * PCS Lab is relative to D50 PCS illuminant (not to media white point).
+     */
+    static final LabConverter PCS_LAB = new LabConverter(D50_X, 1, D50_Z);
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.smartg.icc;
+
+/**
+ * Interpolation kernels for regular grids (CLUTs and baked LUTs).
+ * <p>
+ * Grid layout follows ICC: first input channel varies slowest, output values
+ * of a grid point are stored contiguously.
+ * <p>
+ * Kernels only select grid points of a cell and compute their weights (see
+ * {@link Cell}), weighted sum is computed by
+ * {@link #interpolate(float[], int, Cell, int, float[], int)} and its 8/16
+ * bit variants, so every kernel works with every table storage.
+ */
+final class Interpolation {
+
+    static final float SCALE16 = 1f / 65535;
+    static final float SCALE8 = 1f / 255;
+
+    private Interpolation() {
+    }
+
+    /**
+     * Grid points (offsets relative to cell base) and weights which
+     * contribute to interpolated value. Scratch object, one per thread.
+     */
+    static final class Cell {
+	final int[] offsets;
+	final float[] weights;
+	int size;
+
+	/**
+	 * @param inputs
+	 *            maximal number of inputs
+	 */
+	Cell(int inputs) {
+	    offsets = new int[1 << inputs];
+	    weights = new float[1 << inputs];
+	}
+
+	private void set(int i, int offset, float weight) {
+	    offsets[i] = offset;
+	    weights[i] = weight;
+	}
+    }
+
+    /**
+     * Tetrahedral interpolation in 3D grid.
+     *
+     * @param x
+     *            input values in [0, 1] (clamped)
+     * @return offset of cell base
+     */
+    static int tetrahedral(int n0, int n1, int n2, int outputs, float x, float y, float z, Cell cell) {
+	int s2 = outputs;
+	int s1 = n2 * s2;
+	int s0 = n1 * s1;
+
+	float px = position(x, n0);
+	float py = position(y, n1);
+	float pz = position(z, n2);
+	int ix = cell(px, n0);
+	int iy = cell(py, n1);
+	int iz = cell(pz, n2);
+
+	tetrahedral(n0 > 1 ? s0 : 0, n1 > 1 ? s1 : 0, n2 > 1 ? s2 : 0, px - ix, py - iy, pz - iz, cell);
+	return ix * s0 + iy * s1 + iz * s2;
+    }
+
+    /**
+     * Tetrahedral interpolation: 4 grid points of the tetrahedron which
+     * contains the point.
+     *
+     * @param dx
+     *            offset of neighbor grid point along first axis
+     * @param fx
+     *            fractional position inside cell along first axis
+     */
+    static void tetrahedral(int dx, int dy, int dz, float fx, float fy, float fz, Cell cell) {
+	int o1, o2;
+	float a, b, c;
+	if (fx >= fy) {
+	    if (fy >= fz) {
+		o1 = dx;
+		o2 = dx + dy;
+		a = fx;
+		b = fy;
+		c = fz;
+	    } else if (fx >= fz) {
+		o1 = dx;
+		o2 = dx + dz;
+		a = fx;
+		b = fz;
+		c = fy;
+	    } else {
+		o1 = dz;
+		o2 = dx + dz;
+		a = fz;
+		b = fx;
+		c = fy;
+	    }
+	} else {
+	    if (fx >= fz) {
+		o1 = dy;
+		o2 = dx + dy;
+		a = fy;
+		b = fx;
+		c = fz;
+	    } else if (fy >= fz) {
+		o1 = dy;
+		o2 = dy + dz;
+		a = fy;
+		b = fz;
+		c = fx;
+	    } else {
+		o1 = dz;
+		o2 = dy + dz;
+		a = fz;
+		b = fy;
+		c = fx;
+	    }
+	}
+	cell.set(0, 0, 1 - a);
+	cell.set(1, o1, a - b);
+	cell.set(2, o2, b - c);
+	cell.set(3, dx + dy + dz, c);
+	cell.size = 4;
+    }
+
+    /**
+     * Trilinear interpolation: all 8 grid points of the cell.
+     *
+     * @see #tetrahedral(int, int, int, float, float, float, Cell)
+     */
+    static void trilinear(int dx, int dy, int dz, float fx, float fy, float fz, Cell cell) {
+	float gx = 1 - fx;
+	float gy = 1 - fy;
+	float gz = 1 - fz;
+	cell.set(0, 0, gx * gy * gz);
+	cell.set(1, dz, gx * gy * fz);
+	cell.set(2, dy, gx * fy * gz);
+	cell.set(3, dy + dz, gx * fy * fz);
+	cell.set(4, dx, fx * gy * gz);
+	cell.set(5, dx + dz, fx * gy * fz);
+	cell.set(6, dx + dy, fx * fy * gz);
+	cell.set(7, dx + dy + dz, fx * fy * fz);
+	cell.size = 8;
+    }
+
+    /**
+     * Quadrilinear interpolation: all 16 grid points of 4D cell.
+     *
+     * @param d0
+     *            offset of neighbor grid point along first axis
+     * @param f0
+     *            fractional position inside cell along first axis
+     */
+    static void quadrilinear(int d0, int d1, int d2, int d3, float f0, float f1, float f2, float f3, Cell cell) {
+	trilinear(d1, d2, d3, f1, f2, f3, cell);
+	float g0 = 1 - f0;
+	for (int i = 0; i < 8; i++) {
+	    float w = cell.weights[i];
+	    cell.set(i + 8, cell.offsets[i] + d0, w * f0);
+	    cell.weights[i] = w * g0;
+	}
+	cell.size = 16;
+    }
+
+    /**
+     * 4D simplex (pentachoron) interpolation. Uses 5 grid points instead of
+     * 16.
+     *
+     * @see #quadrilinear(int, int, int, int, float, float, float, float, Cell)
+     */
+    static void pentachoron(int d0, int d1, int d2, int d3, float f0, float f1, float f2, float f3, Cell cell) {
+	// sort fractions (with their offsets) in descending order
+	float t;
+	int o;
+	if (f0 < f1) {
+	    t = f0;
+	    f0 = f1;
+	    f1 = t;
+	    o = d0;
+	    d0 = d1;
+	    d1 = o;
+	}
+	if (f2 < f3) {
+	    t = f2;
+	    f2 = f3;
+	    f3 = t;
+	    o = d2;
+	    d2 = d3;
+	    d3 = o;
+	}
+	if (f0 < f2) {
+	    t = f0;
+	    f0 = f2;
+	    f2 = t;
+	    o = d0;
+	    d0 = d2;
+	    d2 = o;
+	}
+	if (f1 < f3) {
+	    t = f1;
+	    f1 = f3;
+	    f3 = t;
+	    o = d1;
+	    d1 = d3;
+	    d3 = o;
+	}
+	if (f1 < f2) {
+	    t = f1;
+	    f1 = f2;
+	    f2 = t;
+	    o = d1;
+	    d1 = d2;
+	    d2 = o;
+	}
+	int o1 = d0;
+	int o2 = o1 + d1;
+	int o3 = o2 + d2;
+	cell.set(0, 0, 1 - f0);
+	cell.set(1, o1, f0 - f1);
+	cell.set(2, o2, f1 - f2);
+	cell.set(3, o3, f2 - f3);
+	cell.set(4, o3 + d3, f3);
+	cell.size = 5;
+    }
+
+    /**
+     * Multilinear interpolation in grid with any number of inputs (2^n grid
+     * points).
+     *
+     * @param gridPoints
+     *            grid points per input
+     * @param strides
+     *            offset between neighbor grid points for each input
+     * @return offset of cell base
+     */
+    static int multilinear(int[] gridPoints, int[] strides, float[] src, int srcOffset, Cell cell) {
+	int n = gridPoints.length;
+	int base = 0;
+	cell.set(0, 0, 1);
+	int size = 1;
+	for (int i = 0; i < n; i++) {
+	    float p = position(src[srcOffset + i], gridPoints[i]);
+	    int c = cell(p, gridPoints[i]);
+	    float f = p - c;
+	    base += c * strides[i];
+	    int d = gridPoints[i] > 1 ? strides[i] : 0;
+	    for (int j = 0; j < size; j++) {
+		float w = cell.weights[j];
+		cell.set(j + size, cell.offsets[j] + d, w * f);
+		cell.weights[j] = w * (1 - f);
+	    }
+	    size += size;
+	}
+	cell.size = size;
+	return base;
+    }
+
+    /**
+     * Computes weighted sum of grid points selected by kernel for each
+     * output.
+     *
+     * @param base
+     *            offset of cell base in <code>table</code>
+     */
+    static void interpolate(float[] table, int base, Cell cell, int outputs, float[] dst, int dstOffset) {
+	final int[] o = cell.offsets;
+	final float[] w = cell.weights;
+	final int size = cell.size;
+	for (int i = 0; i < outputs; i++) {
+	    int k = base + i;
+	    float v = 0;
+	    for (int j = 0; j < size; j++) {
+		v += w[j] * table[k + o[j]];
+	    }
+	    dst[dstOffset + i] = v;
+	}
+    }
+
+    /**
+     * Same as {@link #interpolate(float[], int, Cell, int, float[], int)} for
+     * 16 bit table (values are normalized on the fly).
+     */
+    static void interpolate(short[] table, int base, Cell cell, int outputs, float[] dst, int dstOffset) {
+	final int[] o = cell.offsets;
+	final float[] w = cell.weights;
+	final int size = cell.size;
+	for (int i = 0; i < outputs; i++) {
+	    int k = base + i;
+	    float v = 0;
+	    for (int j = 0; j < size; j++) {
+		v += w[j] * (table[k + o[j]] & 0xFFFF);
+	    }
+	    dst[dstOffset + i] = v * SCALE16;
+	}
+    }
+
+    /**
+     * Same as {@link #interpolate(float[], int, Cell, int, float[], int)} for
+     * 8 bit table (values are normalized on the fly).
+     */
+    static void interpolate(byte[] table, int base, Cell cell, int outputs, float[] dst, int dstOffset) {
+	final int[] o = cell.offsets;
+	final float[] w = cell.weights;
+	final int size = cell.size;
+	for (int i = 0; i < outputs; i++) {
+	    int k = base + i;
+	    float v = 0;
+	    for (int j = 0; j < size; j++) {
+		v += w[j] * (table[k + o[j]] & 0xFF);
+	    }
+	    dst[dstOffset + i] = v * SCALE8;
+	}
+    }
+
+    /**
+     * Linear interpolation in 1D table with <code>n</code> entries.
+     */
+    static float linear(float[] table, int offset, int n, float v) {
+	float p = position(v, n);
+	int i = cell(p, n);
+	if (n == 1) {
+	    return table[offset];
+	}
+	float a = table[offset + i];
+	return a + (table[offset + i + 1] - a) * (p - i);
+    }
+
+    /**
+     * @return position of <code>v</code> in grid with <code>n</code> points
+     *         (in grid units)
+     */
+    static float position(float v, int n) {
+	if (v <= 0) {
+	    return 0;
+	}
+	if (v >= 1) {
+	    return n - 1;
+	}
+	return v * (n - 1);
+    }
+
+    /**
+     * @return index of cell which contains position <code>p</code>
+     */
+    static int cell(float p, int n) {
+	int i = (int) p;
+	if (i >= n - 1) {
+	    i = n > 1 ? n - 2 : 0;
+	}
+	return i;
+    }
+}
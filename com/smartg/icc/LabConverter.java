@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.smartg.icc;
+
+import com.smartg.color.ReferenceWhite;
+
+/**
+ * CIE Lab &lt;-&gt; XYZ conversion without Math.pow.
+ * <p>
+ * Cube root segment of f(t) is evaluated with 1024 interval lookup table on
+ * [0, 2] (linear interpolation) refined with one Halley step. Maximum
+ * relative error of cube root is below 3e-7 (about 2 ulp of float) for t in
+ * (216/24389, 2]; L*, a* and b* differ from double precision computation by
+ * less than 2e-4. Values above 2 fall back to Math.cbrt.
+ */
+public final class LabConverter {
+
+    static final float KAPPA = 24389f / 27f;
+    static final float ETA = 216f / 24389f;
+
+    private static final int TABLE_SIZE = 1024;
+    private static final float TABLE_MAX = 2f;
+    private static final float TABLE_SCALE = TABLE_SIZE / TABLE_MAX;
+    private static final float[] CBRT = createTable();
+
+    private static float[] createTable() {
+	float[] table = new float[TABLE_SIZE + 2];
+	for (int i = 0; i < table.length; i++) {
+	    table[i] = (float) Math.cbrt(i / (double) TABLE_SCALE);
+	}
+	return table;
+    }
+
+    private final float xn, yn, zn;
+    private final float ixn, iyn, izn;
+
+    public LabConverter(ReferenceWhite white) {
+	this((float) white.Xn, (float) white.Yn, (float) white.Zn);
+    }
+
+    public LabConverter(float[] whitePoint) {
+	this(whitePoint[0], whitePoint[1], whitePoint[2]);
+    }
+
+    public LabConverter(float xn, float yn, float zn) {
+	this.xn = xn;
+	this.yn = yn;
+	this.zn = zn;
+	this.ixn = 1f / xn;
+	this.iyn = 1f / yn;
+	this.izn = 1f / zn;
+    }
+
+    /**
+     * Cube root for t &gt;= ETA.
+     */
+    static float cbrt(float t) {
+	if (t > TABLE_MAX) {
+	    return (float) Math.cbrt(t);
+	}
+	float p = t * TABLE_SCALE;
+	int i = (int) p;
+	float y = CBRT[i] + (p - i) * (CBRT[i + 1] - CBRT[i]);
+	float y3 = y * y * y;
+	return y * (y3 + t + t) / (y3 + y3 + t);
+    }
+
+    static float f(float t) {
+	if (t > ETA) {
+	    return cbrt(t);
+	}
+	return (KAPPA * t + 16f) / 116f;
+    }
+
+    public float[] xyz2lab(float[] src, float[] dst) {
+	xyz2lab(src, 0, 3, dst, 0, 3, 1);
+	return dst;
+    }
+
+    public float[] lab2xyz(float[] src, float[] dst) {
+	lab2xyz(src, 0, 3, dst, 0, 3, 1);
+	return dst;
+    }
+
+    /**
+     * Converts <code>count</code> interleaved XYZ values to Lab.
+     */
+    public void xyz2lab(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int count) {
+	final float ixn = this.ixn, iyn = this.iyn, izn = this.izn;
+	for (int i = 0; i < count; i++) {
+	    float fx = f(src[srcOffset] * ixn);
+	    float fy = f(src[srcOffset + 1] * iyn);
+	    float fz = f(src[srcOffset + 2] * izn);
+
+	    dst[dstOffset] = 116f * fy - 16f;
+	    dst[dstOffset + 1] = 500f * (fx - fy);
+	    dst[dstOffset + 2] = 200f * (fy - fz);
+
+	    srcOffset += srcStride;
+	    dstOffset += dstStride;
+	}
+    }
+
+    /**
+     * Converts <code>count</code> interleaved Lab values to XYZ.
+     */
+    public void lab2xyz(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int count) {
+	final float xn = this.xn, yn = this.yn, zn = this.zn;
+	for (int i = 0; i < count; i++) {
+	    float L = src[srcOffset];
+	    float fy = (L + 16f) / 116f;
+	    float fx = src[srcOffset + 1] / 500f + fy;
+	    float fz = fy - src[srcOffset + 2] / 200f;
+
+	    float yr = L > 8f ? fy * fy * fy : L / KAPPA;
+
+	    float xr = fx * fx * fx;
+	    if (xr <= ETA) {
+		xr = (116f * fx - 16f) / KAPPA;
+	    }
+
+	    float zr = fz * fz * fz;
+	    if (zr <= ETA) {
+		zr = (116f * fz - 16f) / KAPPA;
+	    }
+
+	    dst[dstOffset] = xr * xn;
+	    dst[dstOffset + 1] = yr * yn;
+	    dst[dstOffset + 2] = zr * zn;
+
+	    srcOffset += srcStride;
+	    dstOffset += dstStride;
+	}
+    }
+}
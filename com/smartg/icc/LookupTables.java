@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.smartg.icc;
+
+import com.smartg.icc.tag.Tag.ICurve;
+
+/**
+ * Precomputed curve tables for integer pixel formats.
+ */
+final class LookupTables {
+
+    /**
+     * Number of intervals used to quantize linear values back to 8 bit.
+     * Table is indexed by square root of linear value, so that shadows of
+     * gamma curves get enough entries (see {@link #index8(float)}).
+     */
+    static final int INVERSE_8_SIZE = 4096;
+
+    /**
+     * Number of intervals used to quantize linear values back to 16 bit.
+     * Table is indexed by cube root of linear value (see
+     * {@link #index16(float)}), which keeps round trip error of gamma curves
+     * up to 3.0 within one code value.
+     */
+    static final int INVERSE_16_SIZE = 65535;
+
+    private LookupTables() {
+    }
+
+    /**
+     * Samples curve at <code>size</code> evenly spaced points in [0, 1].
+     */
+    static float[] forward(ICurve curve, int size) {
+	float[] table = new float[size];
+	float scale = 1f / (size - 1);
+	for (int i = 0; i < size; i++) {
+	    table[i] = i * scale;
+	}
+	curve.get(table, 0, 1, table, 0, 1, size);
+	return table;
+    }
+
+    /**
+     * Builds quantizing table which maps linear value (see {@link #index8(float)}) directly to 8 bit device value.
+     */
+    static byte[] inverse8(ICurve inverse) {
+	float[] f = ramp(INVERSE_8_SIZE);
+	for (int i = 0; i < f.length; i++) {
+	    f[i] *= f[i];
+	}
+	inverse.get(f, 0, 1, f, 0, 1, f.length);
+	byte[] table = new byte[f.length];
+	for (int i = 0; i < f.length; i++) {
+	    table[i] = (byte) quantize(f[i], 255);
+	}
+	return table;
+    }
+
+    /**
+     * @return index of <code>linear</code> in table built by
+     *         {@link #inverse8(ICurve)}
+     */
+    static int index8(float linear) {
+	if (linear <= 0) {
+	    return 0;
+	}
+	if (linear >= 1) {
+	    return INVERSE_8_SIZE;
+	}
+	return (int) ((float) Math.sqrt(linear) * INVERSE_8_SIZE + 0.5f);
+    }
+
+    /**
+     * Builds quantizing table which maps linear value (see {@link #index16(float)}) directly to 16 bit device value.
+     */
+    static short[] inverse16(ICurve inverse) {
+	float[] f = ramp(INVERSE_16_SIZE);
+	for (int i = 0; i < f.length; i++) {
+	    f[i] = f[i] * f[i] * f[i];
+	}
+	inverse.get(f, 0, 1, f, 0, 1, f.length);
+	short[] table = new short[f.length];
+	for (int i = 0; i < f.length; i++) {
+	    table[i] = (short) quantize(f[i], 65535);
+	}
+	return table;
+    }
+
+    /**
+     * @return <code>steps + 1</code> evenly spaced values from 0 to 1
+     */
+    static float[] ramp(int steps) {
+	float[] f = new float[steps + 1];
+	for (int i = 0; i <= steps; i++) {
+	    f[i] = i / (float) steps;
+	}
+	return f;
+    }
+
+    /**
+     * @return index of <code>linear</code> in table built by
+     *         {@link #inverse16(ICurve)}
+     */
+    static int index16(float linear) {
+	if (linear <= 0) {
+	    return 0;
+	}
+	if (linear >= 1) {
+	    return INVERSE_16_SIZE;
+	}
+	return (int) ((float) Math.cbrt(linear) * INVERSE_16_SIZE + 0.5f);
+    }
+
+    static int quantize(float f, int max) {
+	if (f <= 0) {
+	    return 0;
+	}
+	if (f >= 1) {
+	    return max;
+	}
+	return (int) (f * max + 0.5f);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.smartg.icc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded thread safe LRU map with hit, miss and eviction counters. Base of
+ * {@link ProfileCache} and {@link TransformCache}.
+ */
+abstract class LruCache<K, V> {
+
+    private final LinkedHashMap<K, V> map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+	private static final long serialVersionUID = -2620342787734470475L;
+
+	@Override
+	protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+	    if (size() > maximumSize) {
+		evictions.incrementAndGet();
+		return true;
+	    }
+	    return false;
+	}
+    };
+
+    private int maximumSize;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    LruCache(int maximumSize) {
+	setMaximumSize(maximumSize);
+    }
+
+    /**
+     * @return cached value or null (counted as hit or miss)
+     */
+    V lookup(K key) {
+	V value;
+	synchronized (map) {
+	    value = map.get(key);
+	}
+	if (value != null) {
+	    hits.incrementAndGet();
+	} else {
+	    misses.incrementAndGet();
+	}
+	return value;
+    }
+
+    /**
+     * @return <code>value</code> or value cached by another thread in
+     *         meantime
+     */
+    V put(K key, V value) {
+	synchronized (map) {
+	    V v = map.get(key);
+	    if (v != null) {
+		return v;
+	    }
+	    map.put(key, value);
+	}
+	return value;
+    }
+
+    public int getMaximumSize() {
+	synchronized (map) {
+	    return maximumSize;
+	}
+    }
+
+    /**
+     * Sets maximal number of cached entries. Least recently used entries are
+     * evicted if cache is larger.
+     */
+    public void setMaximumSize(int maximumSize) {
+	if (maximumSize < 0) {
+	    throw new IllegalArgumentException("maximumSize: " + maximumSize);
+	}
+	synchronized (map) {
+	    this.maximumSize = maximumSize;
+	    while (map.size() > maximumSize) {
+		K eldest = map.keySet().iterator().next();
+		map.remove(eldest);
+		evictions.incrementAndGet();
+	    }
+	}
+    }
+
+    public int size() {
+	synchronized (map) {
+	    return map.size();
+	}
+    }
+
+    public void clear() {
+	synchronized (map) {
+	    map.clear();
+	}
+    }
+
+    public long getHitCount() {
+	return hits.get();
+    }
+
+    public long getMissCount() {
+	return misses.get();
+    }
+
+    public long getEvictionCount() {
+	return evictions.get();
+    }
+
+    public double getHitRate() {
+	long h = hits.get();
+	long total = h + misses.get();
+	return total == 0 ? 0 : h / (double) total;
+    }
+
+    public void resetStatistics() {
+	hits.set(0);
+	misses.set(0);
+	evictions.set(0);
+    }
+
+    @Override
+    public String toString() {
+	return getClass().getSimpleName() + ": {[size=" + size() + "] [maximumSize=" + getMaximumSize() + "] [hits=" + hits.get() + "] [misses="
+		+ misses.get() + "] [evictions=" + evictions.get() + "]}";
+    }
+}
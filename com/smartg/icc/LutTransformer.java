@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.smartg.icc;
+
+import com.smartg.icc.tag.Tag;
+import com.smartg.icc.tag.Tag.Lut;
+import com.smartg.icc.tag.Tag.LutAtoB;
+import com.smartg.icc.tag.TagType;
+
+/**
+ * ColorTransformer for lut8Type, lut16Type (mft1/mft2), lutAtoBType and
+ * lutBtoAType (mAB/mBA) tags.
+ * <p>
+ * AToB tag is used for toPCS and BToA tag for fromPCS; each tag is compiled
+ * into a {@link Pipeline}. Missing direction is delegated to fallback
+ * transformer (matrix/TRC).
+ * <p>
+ * For ICC-absolute colorimetric intent PCS values are scaled by media white
+ * point relative to D50 (ICC.1 media-relative to ICC-absolute conversion).
+ */
+class LutTransformer extends ColorTransformer {
+
+    final Pipeline aToB, bToA;
+    final int numComponents;
+    final PCSEncoding toEncoding, fromEncoding;
+    final ColorTransformer fallback;
+    final boolean labPCS;
+    final float[] absolute;
+
+    /**
+     * @param aToB
+     *            AToB tag (Lut or LutAtoB) or null
+     * @param bToA
+     *            BToA tag (Lut or LutAtoB) or null
+     * @param labPCS
+     *            true if PCS is L*a*b*, false for XYZ
+     * @param fallback
+     *            transformer used for missing tag (same PCS), may be null
+     *            only if both tags are given
+     * @param absolute
+     *            media white point / D50 (X, Y, Z) for ICC-absolute
+     *            colorimetric intent, null for other intents
+     */
+    LutTransformer(Tag aToB, Tag bToA, int numComponents, boolean labPCS, InterpolationType interpolation, ColorTransformer fallback, float[] absolute) {
+	if ((aToB == null || bToA == null) && fallback == null) {
+	    throw new IllegalArgumentException("Missing AToB or BToA tag and no fallback transformer");
+	}
+	this.numComponents = numComponents;
+	this.aToB = aToB != null ? pipeline(aToB, false, interpolation) : null;
+	this.bToA = bToA != null ? pipeline(bToA, !labPCS, interpolation) : null;
+	this.toEncoding = aToB != null ? encoding(aToB, labPCS) : null;
+	this.fromEncoding = bToA != null ? encoding(bToA, labPCS) : null;
+	this.fallback = fallback;
+	this.labPCS = labPCS;
+	this.absolute = absolute;
+    }
+
+    private static Pipeline pipeline(Tag tag, boolean xyzInput, InterpolationType interpolation) {
+	if (tag instanceof LutAtoB) {
+	    return Pipeline.create((LutAtoB) tag, interpolation);
+	}
+	return Pipeline.create((Lut) tag, xyzInput, interpolation);
+    }
+
+    private static PCSEncoding encoding(Tag tag, boolean labPCS) {
+	if (!labPCS) {
+	    return PCSEncoding.XYZ;
+	}
+	return tag.getTagType() == TagType.LUT_16_TYPE ? PCSEncoding.LAB_LEGACY : PCSEncoding.LAB;
+    }
+
+    @Override
+    public int getNumComponents() {
+	return numComponents;
+    }
+
+    @Override
+    public int getNumPCSComponents() {
+	return 3;
+    }
+
+    @Override
+    public float[] toPCS(float[] src, float[] dst) {
+	toPCS(src, 0, numComponents, dst, 0, 3, 1);
+	return dst;
+    }
+
+    @Override
+    public float[] fromPCS(float[] src, float[] dst) {
+	fromPCS(src, 0, 3, dst, 0, numComponents, 1);
+	return dst;
+    }
+
+    @Override
+    public void toPCS(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int count) {
+	if (aToB == null) {
+	    fallback.toPCS(src, srcOffset, srcStride, dst, dstOffset, dstStride, count);
+	    return;
+	}
+	aToB.evaluate(src, srcOffset, srcStride, dst, dstOffset, dstStride, count);
+	decode(dst, dstOffset, dstStride, count);
+    }
+
+    @Override
+    public void toPCS(short[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int count) {
+	if (aToB == null) {
+	    fallback.toPCS(src, srcOffset, srcStride, dst, dstOffset, dstStride, count);
+	    return;
+	}
+	aToB.evaluate(src, srcOffset, srcStride, dst, dstOffset, dstStride, count);
+	decode(dst, dstOffset, dstStride, count);
+    }
+
+    @Override
+    public void toPCS(byte[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int count) {
+	if (aToB == null) {
+	    fallback.toPCS(src, srcOffset, srcStride, dst, dstOffset, dstStride, count);
+	    return;
+	}
+	aToB.evaluate(src, srcOffset, srcStride, dst, dstOffset, dstStride, count);
+	decode(dst, dstOffset, dstStride, count);
+    }
+
+    private void decode(float[] dst, int dstOffset, int dstStride, int count) {
+	PCSEncoding encoding = toEncoding;
+	float[] absolute = this.absolute;
+	for (int i = 0; i < count; i++) {
+	    encoding.decode(dst, dstOffset, dst, dstOffset);
+	    if (absolute != null) {
+		adapt(dst, dstOffset, true);
+	    }
+	    dstOffset += dstStride;
+	}
+    }
+
+    @Override
+    public void fromPCS(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int count) {
+	Pipeline p = bToA;
+	if (p == null) {
+	    fallback.fromPCS(src, srcOffset, srcStride, dst, dstOffset, dstStride, count);
+	    return;
+	}
+	int chunk = Math.min(count, CHUNK_SIZE);
+	float[] pcs = new float[chunk * 3];
+	while (count > 0) {
+	    int n = encode(src, srcOffset, srcStride, pcs, count, chunk);
+	    p.evaluate(pcs, 0, 3, dst, dstOffset, dstStride, n);
+	    srcOffset += n * srcStride;
+	    dstOffset += n * dstStride;
+	    count -= n;
+	}
+    }
+
+    @Override
+    public void fromPCS(float[] src, int srcOffset, int srcStride, short[] dst, int dstOffset, int dstStride, int count) {
+	Pipeline p = bToA;
+	if (p == null) {
+	    fallback.fromPCS(src, srcOffset, srcStride, dst, dstOffset, dstStride, count);
+	    return;
+	}
+	int chunk = Math.min(count, CHUNK_SIZE);
+	float[] pcs = new float[chunk * 3];
+	while (count > 0) {
+	    int n = encode(src, srcOffset, srcStride, pcs, count, chunk);
+	    p.evaluate(pcs, 0, 3, dst, dstOffset, dstStride, n);
+	    srcOffset += n * srcStride;
+	    dstOffset += n * dstStride;
+	    count -= n;
+	}
+    }
+
+    @Override
+    public void fromPCS(float[] src, int srcOffset, int srcStride, byte[] dst, int dstOffset, int dstStride, int count) {
+	Pipeline p = bToA;
+	if (p == null) {
+	    fallback.fromPCS(src, srcOffset, srcStride, dst, dstOffset, dstStride, count);
+	    return;
+	}
+	int chunk = Math.min(count, CHUNK_SIZE);
+	float[] pcs = new float[chunk * 3];
+	while (count > 0) {
+	    int n = encode(src, srcOffset, srcStride, pcs, count, chunk);
+	    p.evaluate(pcs, 0, 3, dst, dstOffset, dstStride, n);
+	    srcOffset += n * srcStride;
+	    dstOffset += n * dstStride;
+	    count -= n;
+	}
+    }
+
+    private int encode(float[] src, int srcOffset, int srcStride, float[] pcs, int count, int chunk) {
+	PCSEncoding encoding = fromEncoding;
+	int n = Math.min(count, chunk);
+	for (int i = 0, k = 0; i < n; i++, k += 3) {
+	    if (absolute != null) {
+		System.arraycopy(src, srcOffset, pcs, k, 3);
+		adapt(pcs, k, false);
+		encoding.encode(pcs, k, pcs, k);
+	    } else {
+		encoding.encode(src, srcOffset, pcs, k);
+	    }
+	    srcOffset += srcStride;
+	}
+	return n;
+    }
+
+    /**
+     * Converts PCS value between media-relative and ICC-absolute
+     * colorimetry (XYZ scaled by media white point / D50, L*a*b* is
+     * converted through XYZ).
+     */
+    private void adapt(float[] pcs, int offset, boolean toAbsolute) {
+	if (labPCS) {
+	    ICC_Transform.PCS_LAB.lab2xyz(pcs, offset, 3, pcs, offset, 3, 1);
+	}
+	for (int c = 0; c < 3; c++) {
+	    pcs[offset + c] = toAbsolute ? pcs[offset + c] * absolute[c] : pcs[offset + c] / absolute[c];
+	}
+	if (labPCS) {
+	    ICC_Transform.PCS_LAB.xyz2lab(pcs, offset, 3, pcs, offset, 3, 1);
+	}
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.smartg.icc;
+
+/**
+ * Encodings of PCS values in lookup tables. Table values are normalized to
+ * [0, 1]; decode converts them to XYZ or L*a*b* numbers as used by
+ * ColorTransformer.
+ */
+enum PCSEncoding {
+
+    /**
+     * XYZ, 0 to 1 + 32767/32768.
+     */
+    XYZ {
+	@Override
+	void decode(float[] src, int srcOffset, float[] dst, int dstOffset) {
+	    dst[dstOffset] = src[srcOffset] * XYZ_SCALE;
+	    dst[dstOffset + 1] = src[srcOffset + 1] * XYZ_SCALE;
+	    dst[dstOffset + 2] = src[srcOffset + 2] * XYZ_SCALE;
+	}
+
+	@Override
+	void encode(float[] src, int srcOffset, float[] dst, int dstOffset) {
+	    dst[dstOffset] = clamp(src[srcOffset] / XYZ_SCALE);
+	    dst[dstOffset + 1] = clamp(src[srcOffset + 1] / XYZ_SCALE);
+	    dst[dstOffset + 2] = clamp(src[srcOffset + 2] / XYZ_SCALE);
+	}
+    },
+
+    /**
+     * Legacy 16 bit L*a*b* (lut16Type and version 2 profiles), L* 100 and a*
+     * 127 are encoded as 0xFF00.
+     */
+    LAB_LEGACY {
+	@Override
+	void decode(float[] src, int srcOffset, float[] dst, int dstOffset) {
+	    dst[dstOffset] = src[srcOffset] * LEGACY_SCALE * 100;
+	    dst[dstOffset + 1] = src[srcOffset + 1] * LEGACY_SCALE * 255 - 128;
+	    dst[dstOffset + 2] = src[srcOffset + 2] * LEGACY_SCALE * 255 - 128;
+	}
+
+	@Override
+	void encode(float[] src, int srcOffset, float[] dst, int dstOffset) {
+	    dst[dstOffset] = clamp(src[srcOffset] / (100 * LEGACY_SCALE));
+	    dst[dstOffset + 1] = clamp((src[srcOffset + 1] + 128) / (255 * LEGACY_SCALE));
+	    dst[dstOffset + 2] = clamp((src[srcOffset + 2] + 128) / (255 * LEGACY_SCALE));
+	}
+    },
+
+    /**
+     * L*a*b* as in lut8Type and version 4 profiles, L* 100 and a* 127 are
+     * encoded as maximal value.
+     */
+    LAB {
+	@Override
+	void decode(float[] src, int srcOffset, float[] dst, int dstOffset) {
+	    dst[dstOffset] = src[srcOffset] * 100;
+	    dst[dstOffset + 1] = src[srcOffset + 1] * 255 - 128;
+	    dst[dstOffset + 2] = src[srcOffset + 2] * 255 - 128;
+	}
+
+	@Override
+	void encode(float[] src, int srcOffset, float[] dst, int dstOffset) {
+	    dst[dstOffset] = clamp(src[srcOffset] / 100);
+	    dst[dstOffset + 1] = clamp((src[srcOffset + 1] + 128) / 255);
+	    dst[dstOffset + 2] = clamp((src[srcOffset + 2] + 128) / 255);
+	}
+    };
+
+    static final float XYZ_SCALE = 65535f / 32768f;
+    static final float LEGACY_SCALE = 65535f / 65280f;
+
+    /**
+     * Converts 3 normalized table values to PCS values.
+     */
+    abstract void decode(float[] src, int srcOffset, float[] dst, int dstOffset);
+
+    /**
+     * Converts 3 PCS values to normalized table values.
+     */
+    abstract void encode(float[] src, int srcOffset, float[] dst, int dstOffset);
+
+    static float clamp(float v) {
+	return v < 0 ? 0 : (v > 1 ? 1 : v);
+    }
+}
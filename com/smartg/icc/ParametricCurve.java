@@ -39,7 +39,8 @@ public class ParametricCurve extends Tag implements ICurve {
     private int reserved2;
     private float[] params;
 
-    private Curve inverse;
+    private ICurve inverse;
+    private ICurve compiled;
 
     private static String[] functions = { "Y = X^k", "Y = (aX+B)^k for (X >= -b/a), Y=0 for (X < -b/a)",
     	"Y = (aX+B)^k + c for (X >= -b/a), Y=c for (X < -b/a)", "Y = (aX+B)^k for (X >= d), Y=cX for (X < d)",
@@ -129,20 +130,43 @@ public class ParametricCurve extends Tag implements ICurve {
         return 0;
     }
 
-    public ICurve inverse() {
+    public void get(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int length) {
+        ICurve c = compile();
+        if (c != this) {
+            c.get(src, srcOffset, srcStride, dst, dstOffset, dstStride, length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            dst[dstOffset] = get(src[srcOffset]);
+            srcOffset += srcStride;
+            dstOffset += dstStride;
+        }
+    }
+
+    /**
+     * @return exact analytic inverse; sampled inverse if curve has no closed
+     *         form inverse
+     */
+    public synchronized ICurve inverse() {
         if (inverse == null) {
-    	int entryCount = 1024;
-    	float[] ivalues = new float[entryCount];
-    	for (int i = 0; i < entryCount; i++) {
-    	    float f = get(i / (float) entryCount);
-    	    int index = (int) (f * entryCount);
-    	    ivalues[index] = i;
-    	}
-    	inverse = new Curve(getTagType(), ivalues);
+            inverse = CurveCompiler.createInverse(this);
+            if (inverse == null) {
+                inverse = CurveCompiler.sample(this, 4096).inverse();
+            }
         }
         return inverse;
     }
 
+    /**
+     * Returns inverse sampled to dense table of <code>size</code> entries,
+     * for paths where one lookup is cheaper than pow. Table is less accurate
+     * than {@link #inverse()} where inverse is steep (near black for gamma
+     * curves).
+     */
+    public Curve inverse(int size) {
+        return CurveCompiler.sample(inverse(), size);
+    }
+
     public int getFunctionType() {
         return functionType;
     }
@@ -162,4 +186,14 @@ public class ParametricCurve extends Tag implements ICurve {
     public void setReserved2(int reserved2) {
 	this.reserved2 = reserved2;
     }
+
+    /**
+     * @return specialized evaluator of this curve, created once
+     */
+    synchronized ICurve compile() {
+        if (compiled == null) {
+            compiled = CurveCompiler.create(this);
+        }
+        return compiled;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,624 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.smartg.icc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.smartg.icc.tag.Tag.CLUT;
+import com.smartg.icc.tag.Tag.ICurve;
+import com.smartg.icc.tag.Tag.Lut;
+import com.smartg.icc.tag.Tag.LutAtoB;
+import com.smartg.icc.tag.TagType;
+
+/**
+ * Sequence of processing elements (curves, matrix, CLUT) built from lut8,
+ * lut16, lutAtoB or lutBtoA tag. Absent and identity elements are left out.
+ * <p>
+ * Pipeline works on normalized values and processes pixels in chunks, one
+ * element after another.
+ */
+final class Pipeline {
+
+    final int inputs, outputs;
+    final Stage[] stages;
+    private final int maxChannels;
+
+    // first stage (if it works per channel) evaluated for each 8 bit value
+    private final float[][] input8;
+    private final int first8;
+
+    Pipeline(int inputs, int outputs, List<Stage> stages) {
+	this.inputs = inputs;
+	this.outputs = outputs;
+	this.stages = stages.toArray(new Stage[stages.size()]);
+	int max = Math.max(inputs, outputs);
+	for (Stage s : this.stages) {
+	    max = Math.max(max, s.outputs);
+	}
+	this.maxChannels = max;
+
+	input8 = new float[inputs][256];
+	float[] v = new float[256 * inputs];
+	for (int i = 0, k = 0; i < 256; i++) {
+	    for (int c = 0; c < inputs; c++) {
+		v[k++] = i / 255f;
+	    }
+	}
+	if (this.stages.length > 0 && this.stages[0].isPerChannel()) {
+	    float[] t = new float[v.length];
+	    this.stages[0].apply(v, t, 256);
+	    v = t;
+	    first8 = 1;
+	} else {
+	    first8 = 0;
+	}
+	for (int i = 0, k = 0; i < 256; i++) {
+	    for (int c = 0; c < inputs; c++) {
+		input8[c][i] = v[k++];
+	    }
+	}
+    }
+
+    /**
+     * Pipeline for lut8Type or lut16Type tag.
+     *
+     * @param useMatrix
+     *            true if input is XYZ (matrix is used only for XYZ input)
+     */
+    static Pipeline create(Lut lut, boolean useMatrix, InterpolationType interpolation) {
+	int inputs = lut.getNumberOfInputChannels();
+	int outputs = lut.getNumberOfOutputChannels();
+	List<Stage> stages = new ArrayList<Stage>();
+	if (useMatrix && inputs == 3) {
+	    float[] m = { lut.getE00(), lut.getE01(), lut.getE02(), lut.getE10(), lut.getE11(), lut.getE12(), lut.getE20(), lut.getE21(), lut.getE22(), 0,
+		    0, 0 };
+	    add(stages, new MatrixStage(m));
+	}
+	add(stages, new TableStage(inputs, lut.getInputTables(), lut.getNumberOfInputTableEntries()));
+	add(stages, ClutStage.create(lut.getClut(), interpolation));
+	add(stages, new TableStage(outputs, lut.getOutputTables(), lut.getNumberOfOutputTableEntries()));
+	return new Pipeline(inputs, outputs, stages);
+    }
+
+    /**
+     * Pipeline for lutAtoBType or lutBtoAType tag.
+     */
+    static Pipeline create(LutAtoB lut, InterpolationType interpolation) {
+	int inputs = lut.getNumberOfInputChannels();
+	int outputs = lut.getNumberOfOutputChannels();
+	Stage a = lut.getACurves() != null ? new CurveStage(lut.getACurves()) : null;
+	Stage clut = lut.getClut() != null ? ClutStage.create(lut.getClut(), interpolation) : null;
+	Stage m = lut.getMCurves() != null ? new CurveStage(lut.getMCurves()) : null;
+	Stage matrix = lut.getOffsetToMatrix() > 0 ? new MatrixStage(lut.getMatrix()) : null;
+	Stage b = lut.getBCurves() != null ? new CurveStage(lut.getBCurves()) : null;
+
+	List<Stage> stages = new ArrayList<Stage>();
+	if (lut.getTagType() == TagType.LUT_B_TO_A_TYPE) {
+	    add(stages, b);
+	    add(stages, matrix);
+	    add(stages, m);
+	    add(stages, clut);
+	    add(stages, a);
+	} else {
+	    add(stages, a);
+	    add(stages, clut);
+	    add(stages, m);
+	    add(stages, matrix);
+	    add(stages, b);
+	}
+	return new Pipeline(inputs, outputs, stages);
+    }
+
+    private static void add(List<Stage> stages, Stage stage) {
+	if (stage != null && !stage.isIdentity()) {
+	    stages.add(stage);
+	}
+    }
+
+    boolean isIdentity() {
+	return stages.length == 0;
+    }
+
+    /**
+     * Evaluates <code>count</code> interleaved pixels.
+     */
+    void evaluate(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int count) {
+	int chunk = Math.min(count, ColorTransformer.CHUNK_SIZE);
+	float[] a = new float[chunk * maxChannels];
+	float[] b = new float[chunk * maxChannels];
+	while (count > 0) {
+	    int n = Math.min(count, chunk);
+	    for (int i = 0, k = 0, off = srcOffset; i < n; i++, off += srcStride) {
+		for (int c = 0; c < inputs; c++) {
+		    a[k++] = src[off + c];
+		}
+	    }
+	    float[] result = run(a, b, n);
+	    for (int i = 0, k = 0, off = dstOffset; i < n; i++, off += dstStride) {
+		for (int c = 0; c < outputs; c++) {
+		    dst[off + c] = result[k++];
+		}
+	    }
+	    srcOffset += n * srcStride;
+	    dstOffset += n * dstStride;
+	    count -= n;
+	}
+    }
+
+    /**
+     * Evaluates <code>count</code> pixels with unsigned 16 bit samples.
+     */
+    void evaluate(short[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int count) {
+	int chunk = Math.min(count, ColorTransformer.CHUNK_SIZE);
+	float[] a = new float[chunk * maxChannels];
+	float[] b = new float[chunk * maxChannels];
+	while (count > 0) {
+	    int n = Math.min(count, chunk);
+	    for (int i = 0, k = 0, off = srcOffset; i < n; i++, off += srcStride) {
+		for (int c = 0; c < inputs; c++) {
+		    a[k++] = (src[off + c] & 0xFFFF) / 65535f;
+		}
+	    }
+	    float[] result = run(a, b, n);
+	    for (int i = 0, k = 0, off = dstOffset; i < n; i++, off += dstStride) {
+		for (int c = 0; c < outputs; c++) {
+		    dst[off + c] = result[k++];
+		}
+	    }
+	    srcOffset += n * srcStride;
+	    dstOffset += n * dstStride;
+	    count -= n;
+	}
+    }
+
+    /**
+     * Evaluates <code>count</code> pixels and quantizes result to unsigned 16
+     * bit samples.
+     */
+    void evaluate(float[] src, int srcOffset, int srcStride, short[] dst, int dstOffset, int dstStride, int count) {
+	int chunk = Math.min(count, ColorTransformer.CHUNK_SIZE);
+	float[] a = new float[chunk * maxChannels];
+	float[] b = new float[chunk * maxChannels];
+	while (count > 0) {
+	    int n = Math.min(count, chunk);
+	    for (int i = 0, k = 0, off = srcOffset; i < n; i++, off += srcStride) {
+		for (int c = 0; c < inputs; c++) {
+		    a[k++] = src[off + c];
+		}
+	    }
+	    float[] result = run(a, b, n);
+	    for (int i = 0, k = 0, off = dstOffset; i < n; i++, off += dstStride) {
+		for (int c = 0; c < outputs; c++) {
+		    dst[off + c] = (short) LookupTables.quantize(result[k++], 65535);
+		}
+	    }
+	    srcOffset += n * srcStride;
+	    dstOffset += n * dstStride;
+	    count -= n;
+	}
+    }
+
+    /**
+     * Evaluates <code>count</code> pixels with unsigned 8 bit samples (e.g.
+     * packed CMYK bytes).
+     */
+    void evaluate(byte[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int count) {
+	final float[][] input8 = this.input8;
+	final int inputs = this.inputs;
+	int chunk = Math.min(count, ColorTransformer.CHUNK_SIZE);
+	float[] a = new float[chunk * maxChannels];
+	float[] b = new float[chunk * maxChannels];
+	while (count > 0) {
+	    int n = Math.min(count, chunk);
+	    for (int c = 0; c < inputs; c++) {
+		float[] table = input8[c];
+		for (int i = 0, k = c, off = srcOffset + c; i < n; i++, k += inputs, off += srcStride) {
+		    a[k] = table[src[off] & 0xFF];
+		}
+	    }
+	    float[] result = run(a, b, n, first8);
+	    for (int i = 0, k = 0, off = dstOffset; i < n; i++, off += dstStride) {
+		for (int c = 0; c < outputs; c++) {
+		    dst[off + c] = result[k++];
+		}
+	    }
+	    srcOffset += n * srcStride;
+	    dstOffset += n * dstStride;
+	    count -= n;
+	}
+    }
+
+    /**
+     * Evaluates <code>count</code> pixels and quantizes result to unsigned 8
+     * bit samples.
+     */
+    void evaluate(float[] src, int srcOffset, int srcStride, byte[] dst, int dstOffset, int dstStride, int count) {
+	int chunk = Math.min(count, ColorTransformer.CHUNK_SIZE);
+	float[] a = new float[chunk * maxChannels];
+	float[] b = new float[chunk * maxChannels];
+	while (count > 0) {
+	    int n = Math.min(count, chunk);
+	    for (int i = 0, k = 0, off = srcOffset; i < n; i++, off += srcStride) {
+		for (int c = 0; c < inputs; c++) {
+		    a[k++] = src[off + c];
+		}
+	    }
+	    float[] result = run(a, b, n);
+	    for (int i = 0, k = 0, off = dstOffset; i < n; i++, off += dstStride) {
+		for (int c = 0; c < outputs; c++) {
+		    dst[off + c] = (byte) LookupTables.quantize(result[k++], 255);
+		}
+	    }
+	    srcOffset += n * srcStride;
+	    dstOffset += n * dstStride;
+	    count -= n;
+	}
+    }
+
+    private float[] run(float[] a, float[] b, int count) {
+	return run(a, b, count, 0);
+    }
+
+    private float[] run(float[] a, float[] b, int count, int first) {
+	for (int i = first; i < stages.length; i++) {
+	    stages[i].apply(a, b, count);
+	    float[] t = a;
+	    a = b;
+	    b = t;
+	}
+	return a;
+    }
+
+    /**
+     * Processing element. Reads <code>inputs</code> and writes
+     * <code>outputs</code> interleaved values per pixel.
+     */
+    abstract static class Stage {
+	final int inputs, outputs;
+
+	Stage(int inputs, int outputs) {
+	    this.inputs = inputs;
+	    this.outputs = outputs;
+	}
+
+	abstract void apply(float[] src, float[] dst, int count);
+
+	abstract boolean isIdentity();
+
+	/**
+	 * @return true if each output depends only on input with same index
+	 */
+	boolean isPerChannel() {
+	    return false;
+	}
+    }
+
+    /**
+     * One curve per channel.
+     */
+    static final class CurveStage extends Stage {
+	final ICurve[] curves;
+
+	CurveStage(ICurve[] curves) {
+	    super(curves.length, curves.length);
+	    this.curves = new ICurve[curves.length];
+	    for (int i = 0; i < curves.length; i++) {
+		// identity curves are skipped
+		this.curves[i] = curves[i] == null || isIdentity(curves[i]) ? null : CurveCompiler.compile(curves[i]);
+	    }
+	}
+
+	static boolean isIdentity(ICurve curve) {
+	    if (curve instanceof Curve && ((Curve) curve).isIdentity()) {
+		return true;
+	    }
+	    for (int i = 0; i <= 256; i++) {
+		float x = i / 256f;
+		if (Math.abs(curve.get(x) - x) > IDENTITY_TOLERANCE) {
+		    return false;
+		}
+	    }
+	    return true;
+	}
+
+	@Override
+	boolean isIdentity() {
+	    for (ICurve c : curves) {
+		if (c != null) {
+		    return false;
+		}
+	    }
+	    return true;
+	}
+
+	@Override
+	boolean isPerChannel() {
+	    return true;
+	}
+
+	@Override
+	void apply(float[] src, float[] dst, int count) {
+	    final int channels = curves.length;
+	    int length = count * channels;
+	    for (int c = 0; c < channels; c++) {
+		ICurve curve = curves[c];
+		if (curve == null) {
+		    for (int k = c; k < length; k += channels) {
+			dst[k] = src[k];
+		    }
+		} else {
+		    curve.get(src, c, channels, dst, c, channels, count);
+		}
+	    }
+	}
+    }
+
+    /**
+     * Sampled tables with linear interpolation (lut8/lut16 input and output
+     * tables).
+     */
+    static final class TableStage extends Stage {
+	final float[] tables;
+	final int entries;
+
+	TableStage(int channels, float[] tables, int entries) {
+	    super(channels, channels);
+	    this.tables = tables;
+	    this.entries = entries;
+	}
+
+	@Override
+	boolean isIdentity() {
+	    if (entries < 2) {
+		return false;
+	    }
+	    for (int c = 0; c < inputs; c++) {
+		for (int i = 0; i < entries; i++) {
+		    if (Math.abs(tables[c * entries + i] - i / (float) (entries - 1)) > IDENTITY_TOLERANCE) {
+			return false;
+		    }
+		}
+	    }
+	    return true;
+	}
+
+	@Override
+	boolean isPerChannel() {
+	    return true;
+	}
+
+	@Override
+	void apply(float[] src, float[] dst, int count) {
+	    final int channels = inputs;
+	    final int entries = this.entries;
+	    int length = count * channels;
+	    for (int c = 0; c < channels; c++) {
+		int offset = c * entries;
+		for (int k = c; k < length; k += channels) {
+		    dst[k] = Interpolation.linear(tables, offset, entries, src[k]);
+		}
+	    }
+	}
+    }
+
+    /**
+     * 3x3 matrix followed by offsets (e00..e22, e03, e13, e23). Results are
+     * clamped to [0, 1].
+     */
+    static final class MatrixStage extends Stage {
+	final float m00, m01, m02, m10, m11, m12, m20, m21, m22;
+	final float o0, o1, o2;
+
+	MatrixStage(float[] m) {
+	    super(3, 3);
+	    m00 = m[0];
+	    m01 = m[1];
+	    m02 = m[2];
+	    m10 = m[3];
+	    m11 = m[4];
+	    m12 = m[5];
+	    m20 = m[6];
+	    m21 = m[7];
+	    m22 = m[8];
+	    o0 = m[9];
+	    o1 = m[10];
+	    o2 = m[11];
+	}
+
+	@Override
+	boolean isIdentity() {
+	    float[] m = { m00, m01, m02, m10, m11, m12, m20, m21, m22 };
+	    for (int i = 0; i < 9; i++) {
+		float expected = (i % 4 == 0) ? 1 : 0;
+		if (Math.abs(m[i] - expected) > IDENTITY_TOLERANCE) {
+		    return false;
+		}
+	    }
+	    return Math.abs(o0) <= IDENTITY_TOLERANCE && Math.abs(o1) <= IDENTITY_TOLERANCE && Math.abs(o2) <= IDENTITY_TOLERANCE;
+	}
+
+	@Override
+	void apply(float[] src, float[] dst, int count) {
+	    final float m00 = this.m00, m01 = this.m01, m02 = this.m02;
+	    final float m10 = this.m10, m11 = this.m11, m12 = this.m12;
+	    final float m20 = this.m20, m21 = this.m21, m22 = this.m22;
+	    final float o0 = this.o0, o1 = this.o1, o2 = this.o2;
+	    int length = count * 3;
+	    for (int k = 0; k < length; k += 3) {
+		float x = src[k];
+		float y = src[k + 1];
+		float z = src[k + 2];
+		dst[k] = PCSEncoding.clamp(m00 * x + m01 * y + m02 * z + o0);
+		dst[k + 1] = PCSEncoding.clamp(m10 * x + m11 * y + m12 * z + o1);
+		dst[k + 2] = PCSEncoding.clamp(m20 * x + m21 * y + m22 * z + o2);
+	    }
+	}
+    }
+
+    /**
+     * Color lookup table. All kernels read CLUT storage directly (compact 8/16
+     * bit or float), no float copy of compact tables is made.
+     */
+    static final class ClutStage extends Stage {
+	final float[] table;
+	final short[] table16;
+	final byte[] table8;
+	final int[] gridPoints;
+	final int[] strides;
+	final boolean tetrahedral;
+
+	private ClutStage(CLUT clut, InterpolationType interpolation) {
+	    super(clut.getInputCount(), clut.getOutputCount());
+	    gridPoints = new int[inputs];
+	    System.arraycopy(clut.getGridPointCount(), 0, gridPoints, 0, inputs);
+	    strides = clut.getStrides();
+	    tetrahedral = interpolation == InterpolationType.TETRAHEDRAL;
+
+	    // kernels read compact storage directly, float values are only
+	    // used when CLUT stores floats
+	    table16 = clut.getShortValues();
+	    table8 = clut.getByteValues();
+	    table = table16 == null && table8 == null ? clut.getValues() : null;
+	}
+
+	/**
+	 * @return CLUT stage or null if CLUT has no grid points (identity)
+	 */
+	static ClutStage create(CLUT clut, InterpolationType interpolation) {
+	    if (clut.getGridPointsTotal() == 0) {
+		return null;
+	    }
+	    return new ClutStage(clut, interpolation);
+	}
+
+	private float value(int offset) {
+	    if (table != null) {
+		return table[offset];
+	    }
+	    if (table16 != null) {
+		return (table16[offset] & 0xFFFF) * Interpolation.SCALE16;
+	    }
+	    return (table8[offset] & 0xFF) * Interpolation.SCALE8;
+	}
+
+	@Override
+	boolean isIdentity() {
+	    if (inputs != outputs) {
+		return false;
+	    }
+	    int[] index = new int[inputs];
+	    int length = table != null ? table.length : table16 != null ? table16.length : table8.length;
+	    for (int k = 0; k < length; k += outputs) {
+		for (int i = 0; i < inputs; i++) {
+		    float expected = gridPoints[i] > 1 ? index[i] / (float) (gridPoints[i] - 1) : 0;
+		    if (Math.abs(value(k + i) - expected) > IDENTITY_TOLERANCE) {
+			return false;
+		    }
+		}
+		for (int i = inputs - 1; i >= 0; i--) {
+		    if (++index[i] < gridPoints[i]) {
+			break;
+		    }
+		    index[i] = 0;
+		}
+	    }
+	    return true;
+	}
+
+	@Override
+	void apply(float[] src, float[] dst, int count) {
+	    final int inputs = this.inputs;
+	    final int outputs = this.outputs;
+	    Interpolation.Cell cell = new Interpolation.Cell(inputs);
+	    if (inputs == 3) {
+		final int n0 = gridPoints[0], n1 = gridPoints[1], n2 = gridPoints[2];
+		final int s0 = strides[0], s1 = strides[1], s2 = strides[2];
+		final int dx = n0 > 1 ? s0 : 0;
+		final int dy = n1 > 1 ? s1 : 0;
+		final int dz = n2 > 1 ? s2 : 0;
+		for (int i = 0, k = 0, d = 0; i < count; i++, k += 3, d += outputs) {
+		    float px = Interpolation.position(src[k], n0);
+		    float py = Interpolation.position(src[k + 1], n1);
+		    float pz = Interpolation.position(src[k + 2], n2);
+		    int ix = Interpolation.cell(px, n0);
+		    int iy = Interpolation.cell(py, n1);
+		    int iz = Interpolation.cell(pz, n2);
+		    if (tetrahedral) {
+			Interpolation.tetrahedral(dx, dy, dz, px - ix, py - iy, pz - iz, cell);
+		    } else {
+			Interpolation.trilinear(dx, dy, dz, px - ix, py - iy, pz - iz, cell);
+		    }
+		    interpolate(ix * s0 + iy * s1 + iz * s2, cell, dst, d);
+		}
+	    } else if (inputs == 4) {
+		final int n0 = gridPoints[0], n1 = gridPoints[1], n2 = gridPoints[2], n3 = gridPoints[3];
+		final int s0 = strides[0], s1 = strides[1], s2 = strides[2], s3 = strides[3];
+		final int d0 = n0 > 1 ? s0 : 0;
+		final int d1 = n1 > 1 ? s1 : 0;
+		final int d2 = n2 > 1 ? s2 : 0;
+		final int d3 = n3 > 1 ? s3 : 0;
+		for (int i = 0, k = 0, d = 0; i < count; i++, k += 4, d += outputs) {
+		    float p0 = Interpolation.position(src[k], n0);
+		    float p1 = Interpolation.position(src[k + 1], n1);
+		    float p2 = Interpolation.position(src[k + 2], n2);
+		    float p3 = Interpolation.position(src[k + 3], n3);
+		    int i0 = Interpolation.cell(p0, n0);
+		    int i1 = Interpolation.cell(p1, n1);
+		    int i2 = Interpolation.cell(p2, n2);
+		    int i3 = Interpolation.cell(p3, n3);
+		    if (tetrahedral) {
+			Interpolation.pentachoron(d0, d1, d2, d3, p0 - i0, p1 - i1, p2 - i2, p3 - i3, cell);
+		    } else {
+			Interpolation.quadrilinear(d0, d1, d2, d3, p0 - i0, p1 - i1, p2 - i2, p3 - i3, cell);
+		    }
+		    interpolate(i0 * s0 + i1 * s1 + i2 * s2 + i3 * s3, cell, dst, d);
+		}
+	    } else {
+		for (int i = 0, k = 0, d = 0; i < count; i++, k += inputs, d += outputs) {
+		    int base = Interpolation.multilinear(gridPoints, strides, src, k, cell);
+		    interpolate(base, cell, dst, d);
+		}
+	    }
+	}
+
+	private void interpolate(int base, Interpolation.Cell cell, float[] dst, int dstOffset) {
+	    if (table16 != null) {
+		Interpolation.interpolate(table16, base, cell, outputs, dst, dstOffset);
+	    } else if (table8 != null) {
+		Interpolation.interpolate(table8, base, cell, outputs, dst, dstOffset);
+	    } else {
+		Interpolation.interpolate(table, base, cell, outputs, dst, dstOffset);
+	    }
+	}
+    }
+
+    static final float IDENTITY_TOLERANCE = 1f / 65535 / 2;
+}
@@ -29,8 +29,6 @@
  */
 package com.smartg.icc;
 
-import java.util.HashMap;
-
 enum PrimaryPlatform {
 
     Apple(0x4150504C, "APPL", "Apple Computer, Inc."), Microsoft(0x4D534654, "MSFT", "Microsoft Corporation"), SiliconGraphics(0x53474920, "SGI ",
@@ -38,17 +36,19 @@ enum PrimaryPlatform {
 
     ;
 
-    private static HashMap<String, PrimaryPlatform> map = new HashMap<String, PrimaryPlatform>();
+    private static final SignatureMap<PrimaryPlatform> map = new SignatureMap<PrimaryPlatform>(values().length);
 
     static {
-	for (PrimaryPlatform pc : PrimaryPlatform.values()) {
-	    map.put(pc.signature, pc);
+	for (PrimaryPlatform pc : values()) {
+	    map.put(pc.value, pc);
 	}
     }
 
+    /**
+     * @return PrimaryPlatform with given signature or null
+     */
     public static PrimaryPlatform get(long signature) {
-	String key = SignatureUtils.toString(signature);
-	return map.get(key);
+	return map.get(signature);
     }
 
     private final long value;
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.smartg.icc;
+
+import java.awt.color.ICC_Profile;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Bounded LRU cache of parsed profiles keyed by profile digest (header
+ * profile ID or computed MD5 if header field is zero). Files are additionally
+ * keyed by canonical path, length and modification time, so digest is
+ * computed only when file is not cached or has changed.
+ * <p>
+ * Cached profiles are shared and must not be modified.
+ */
+public class ProfileCache extends LruCache<ProfileCache.Key, ICCProfile> {
+
+    private static final ProfileCache defaultCache = new ProfileCache(64);
+
+    // file identity to digest key of profile loaded from that file
+    private final LruCache<FileKey, Key> files;
+
+    /**
+     * @return process-wide cache
+     */
+    public static ProfileCache getDefault() {
+	return defaultCache;
+    }
+
+    public ProfileCache(int maximumSize) {
+	super(maximumSize);
+	files = new LruCache<FileKey, Key>(maximumSize) {
+	};
+    }
+
+    @Override
+    public void setMaximumSize(int maximumSize) {
+	super.setMaximumSize(maximumSize);
+	// called by super constructor before files is created
+	if (files != null) {
+	    files.setMaximumSize(maximumSize);
+	}
+    }
+
+    @Override
+    public void clear() {
+	super.clear();
+	files.clear();
+    }
+
+    /**
+     * Returns cached profile with the same digest or parses copy of
+     * <code>data</code> and caches result.
+     */
+    public ICCProfile get(byte[] data) throws IOException {
+	return get(data, true);
+    }
+
+    private ICCProfile get(byte[] data, boolean copy) throws IOException {
+	byte[] digest = ICC_Header.getProfileID(data, 0, data.length);
+	Key key = new Key(digest);
+	ICCProfile profile = lookup(key);
+	if (profile != null) {
+	    return profile;
+	}
+	// cached profile decodes tags lazily from data, so it must not be
+	// shared with caller
+	profile = new ICCProfile(ByteBuffer.wrap(copy ? data.clone() : data), digest);
+	return put(key, profile);
+    }
+
+    /**
+     * Returns profile cached for unchanged <code>file</code> (same canonical
+     * path, length and modification time) without reading it. Otherwise
+     * returns cached profile with the same digest or loads memory mapped
+     * <code>file</code> and caches result.
+     */
+    public ICCProfile get(File file) throws IOException {
+	FileKey fileKey = new FileKey(file);
+	Key key = files.lookup(fileKey);
+	ICCProfile profile = null;
+	if (key != null) {
+	    profile = lookup(key);
+	    if (profile != null) {
+		return profile;
+	    }
+	}
+	ByteBuffer buffer = ICCProfile.mapFile(file);
+	if (key == null) {
+	    // unknown file, profile may be cached from other source
+	    key = new Key(ICC_Header.getProfileID(buffer));
+	    profile = lookup(key);
+	}
+	if (profile == null) {
+	    profile = put(key, new ICCProfile(buffer, key.digest));
+	}
+	files.put(fileKey, key);
+	return profile;
+    }
+
+    public ICCProfile get(ICC_Profile profile) throws IOException {
+	return get(ICCProfile.profileBytes(profile), false);
+    }
+
+    static final class FileKey {
+	private final String path;
+	private final long length;
+	private final long lastModified;
+
+	FileKey(File file) throws IOException {
+	    path = file.getCanonicalPath();
+	    length = file.length();
+	    lastModified = file.lastModified();
+	}
+
+	@Override
+	public int hashCode() {
+	    return path.hashCode() * 31 + (int) (length ^ lastModified);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+	    if (!(obj instanceof FileKey)) {
+		return false;
+	    }
+	    FileKey k = (FileKey) obj;
+	    return path.equals(k.path) && length == k.length && lastModified == k.lastModified;
+	}
+    }
+
+    static final class Key {
+	private final byte[] digest;
+	private final int hash;
+
+	Key(byte[] digest) {
+	    this.digest = digest;
+	    this.hash = Arrays.hashCode(digest);
+	}
+
+	@Override
+	public int hashCode() {
+	    return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+	    return obj instanceof Key && Arrays.equals(digest, ((Key) obj).digest);
+	}
+    }
+}
@@ -29,8 +29,6 @@
  */
 package com.smartg.icc;
 
-import java.util.HashMap;
-
 public enum ProfileClass {
     InputDeviceProfile(0x73636E72, "scnr", "Input Device profile"), //
     DisplayDeviceProfile(0x6D6E7472, "mntr", "Display Device profile"), // 
@@ -42,17 +40,19 @@ public enum ProfileClass {
 
     ;
 
-    private static HashMap<String, ProfileClass> map = new HashMap<String, ProfileClass>();
+    private static final SignatureMap<ProfileClass> map = new SignatureMap<ProfileClass>(values().length);
 
     static {
-	for (ProfileClass pc : ProfileClass.values()) {
-	    map.put(pc.signature, pc);
+	for (ProfileClass pc : values()) {
+	    map.put(pc.value, pc);
 	}
     }
 
+    /**
+     * @return ProfileClass with given signature or null
+     */
     public static ProfileClass get(long signature) {
-	String key = SignatureUtils.toString(signature);
-	return map.get(key);
+	return map.get(signature);
     }
 
     private final long value;
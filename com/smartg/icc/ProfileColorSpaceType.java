@@ -84,9 +84,24 @@ public enum ProfileColorSpaceType {
 	return description;
     }
     
+    private static final SignatureMap<ProfileColorSpaceType> map = new SignatureMap<ProfileColorSpaceType>(values().length);
+
+    static {
+	for (ProfileColorSpaceType cs : values()) {
+	    map.put(cs.value, cs);
+	}
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if signature is unknown
+     */
     public static ProfileColorSpaceType get(long signature) {
-	String s = "CS_" + SignatureUtils.toString(signature).trim().toUpperCase();
-	return ProfileColorSpaceType.valueOf(s);
+	ProfileColorSpaceType cs = map.get(signature);
+	if (cs == null) {
+	    throw new IllegalArgumentException("Unknown color space: " + SignatureUtils.toString(signature));
+	}
+	return cs;
     }
 
     public String getDescription() {
@@ -106,6 +121,6 @@ public enum ProfileColorSpaceType {
     }
 
     public int getNumComponents() {
-        return numComponents;
+	return numComponents;
     }
 }
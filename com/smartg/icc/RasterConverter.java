@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.smartg.icc;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Converts rasters and images with ICC_Transform. Raster is split into bands
+ * of rows which are converted in parallel on a ForkJoinPool.
+ * <p>
+ * Color components are expected to be the first bands of raster, extra bands
+ * (alpha) are copied from source raster if it has them, otherwise they are
+ * set to maximum value. Packed int rasters get alpha only if destination has
+ * alpha, otherwise the unused high bits of destination are left untouched.
+ */
+public class RasterConverter {
+
+    private final ICC_Transform transform;
+    private final ForkJoinPool pool;
+    private int bandHeight = 32;
+
+    /**
+     * Creates converter which uses common ForkJoinPool.
+     */
+    public RasterConverter(ICC_Transform transform) {
+	this(transform, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates converter which runs tasks on <code>pool</code>. Pool is owned
+     * by caller and is not shut down by converter.
+     */
+    public RasterConverter(ICC_Transform transform, ForkJoinPool pool) {
+	this.transform = transform;
+	this.pool = pool;
+    }
+
+    public ICC_Transform getTransform() {
+	return transform;
+    }
+
+    public ForkJoinPool getPool() {
+	return pool;
+    }
+
+    public int getBandHeight() {
+	return bandHeight;
+    }
+
+    /**
+     * Sets minimal number of rows converted by a single task.
+     */
+    public void setBandHeight(int bandHeight) {
+	if (bandHeight < 1) {
+	    throw new IllegalArgumentException("bandHeight: " + bandHeight);
+	}
+	this.bandHeight = bandHeight;
+    }
+
+    public void convert(BufferedImage src, BufferedImage dst) {
+	convert(src.getRaster(), dst.getRaster(), dst.getColorModel().hasAlpha());
+    }
+
+    /**
+     * Converts <code>src</code> into <code>dst</code>. Both rasters must have
+     * the same size. Destination has alpha if it has more bands than
+     * transform has output components.
+     */
+    public void convert(Raster src, WritableRaster dst) {
+	convert(src, dst, dst.getNumBands() > transform.getNumOutputComponents());
+    }
+
+    private void convert(Raster src, WritableRaster dst, boolean dstAlpha) {
+	if (src.getWidth() != dst.getWidth() || src.getHeight() != dst.getHeight()) {
+	    throw new IllegalArgumentException("Raster size mismatch");
+	}
+	if (src.getNumBands() < transform.getNumInputComponents() || dst.getNumBands() < transform.getNumOutputComponents()) {
+	    throw new IllegalArgumentException("Not enough bands");
+	}
+	pool.invoke(new Band(src, dst, dstAlpha, 0, src.getHeight()));
+    }
+
+    class Band extends RecursiveAction {
+	private static final long serialVersionUID = 3306548917282436104L;
+
+	final Raster src;
+	final WritableRaster dst;
+	final boolean dstAlpha;
+	final int y, height;
+
+	Band(Raster src, WritableRaster dst, boolean dstAlpha, int y, int height) {
+	    this.src = src;
+	    this.dst = dst;
+	    this.dstAlpha = dstAlpha;
+	    this.y = y;
+	    this.height = height;
+	}
+
+	@Override
+	protected void compute() {
+	    if (height > bandHeight) {
+		int h = height / 2;
+		invokeAll(new Band(src, dst, dstAlpha, y, h), new Band(src, dst, dstAlpha, y + h, height - h));
+	    } else {
+		convertRows(src, dst, dstAlpha, y, height);
+	    }
+	}
+    }
+
+    void convertRows(Raster src, WritableRaster dst, boolean dstAlpha, int y, int height) {
+	if (isPackedRGB(src) && isPackedRGB(dst) && transform.getNumInputComponents() == 3 && transform.getNumOutputComponents() == 3) {
+	    convertPacked(src, dst, dstAlpha, y, height);
+	    return;
+	}
+	int srcBits = sampleSize(src);
+	int dstBits = sampleSize(dst);
+	if (srcBits == 8 && dstBits == 8) {
+	    convertBytes(src, dst, y, height);
+	} else if (srcBits == 16 && dstBits == 16) {
+	    convertShorts(src, dst, y, height);
+	} else {
+	    convertFloats(src, dst, y, height);
+	}
+    }
+
+    private void convertPacked(Raster src, WritableRaster dst, boolean dstAlpha, int y, int height) {
+	int w = src.getWidth();
+	int sx = src.getMinX();
+	int sy = src.getMinY();
+	int dx = dst.getMinX();
+	int dy = dst.getMinY();
+	boolean srcAlpha = src.getNumBands() > 3;
+	int[] row = new int[w];
+	// high bits of destination without alpha are kept as they are
+	int[] old = dstAlpha ? null : new int[w];
+	for (int i = y; i < y + height; i++) {
+	    src.getDataElements(sx, sy + i, w, 1, row);
+	    if (dstAlpha && !srcAlpha) {
+		for (int k = 0; k < w; k++) {
+		    row[k] |= 0xFF000000;
+		}
+	    }
+	    transform.transform(row, 0, row, 0, w);
+	    if (old != null) {
+		dst.getDataElements(dx, dy + i, w, 1, old);
+		for (int k = 0; k < w; k++) {
+		    row[k] = (old[k] & 0xFF000000) | (row[k] & 0xFFFFFF);
+		}
+	    }
+	    dst.setDataElements(dx, dy + i, w, 1, row);
+	}
+    }
+
+    private void convertBytes(Raster src, WritableRaster dst, int y, int height) {
+	int w = src.getWidth();
+	int sBands = src.getNumBands();
+	int dBands = dst.getNumBands();
+	int[] srcRow = new int[w * sBands];
+	int[] dstRow = new int[w * dBands];
+	byte[] s = new byte[w * sBands];
+	byte[] d = new byte[w * dBands];
+	for (int i = y; i < y + height; i++) {
+	    src.getPixels(src.getMinX(), src.getMinY() + i, w, 1, srcRow);
+	    for (int k = 0; k < srcRow.length; k++) {
+		s[k] = (byte) srcRow[k];
+	    }
+	    transform.transform(s, 0, sBands, d, 0, dBands, w);
+	    for (int k = 0; k < dstRow.length; k++) {
+		dstRow[k] = d[k] & 0xFF;
+	    }
+	    copyExtraBands(srcRow, sBands, 255, dstRow, dBands, w);
+	    dst.setPixels(dst.getMinX(), dst.getMinY() + i, w, 1, dstRow);
+	}
+    }
+
+    private void convertShorts(Raster src, WritableRaster dst, int y, int height) {
+	int w = src.getWidth();
+	int sBands = src.getNumBands();
+	int dBands = dst.getNumBands();
+	int[] srcRow = new int[w * sBands];
+	int[] dstRow = new int[w * dBands];
+	short[] s = new short[w * sBands];
+	short[] d = new short[w * dBands];
+	for (int i = y; i < y + height; i++) {
+	    src.getPixels(src.getMinX(), src.getMinY() + i, w, 1, srcRow);
+	    for (int k = 0; k < srcRow.length; k++) {
+		s[k] = (short) srcRow[k];
+	    }
+	    transform.transform(s, 0, sBands, d, 0, dBands, w);
+	    for (int k = 0; k < dstRow.length; k++) {
+		dstRow[k] = d[k] & 0xFFFF;
+	    }
+	    copyExtraBands(srcRow, sBands, 65535, dstRow, dBands, w);
+	    dst.setPixels(dst.getMinX(), dst.getMinY() + i, w, 1, dstRow);
+	}
+    }
+
+    private void convertFloats(Raster src, WritableRaster dst, int y, int height) {
+	int w = src.getWidth();
+	int sBands = src.getNumBands();
+	int dBands = dst.getNumBands();
+	float[] srcScale = scale(src);
+	float[] dstScale = scale(dst);
+	float[] s = new float[w * sBands];
+	float[] d = new float[w * dBands];
+	for (int i = y; i < y + height; i++) {
+	    src.getPixels(src.getMinX(), src.getMinY() + i, w, 1, s);
+	    for (int k = 0; k < s.length; k++) {
+		s[k] /= srcScale[k % sBands];
+	    }
+	    transform.transform(s, 0, sBands, d, 0, dBands, w);
+	    copyExtraBands(s, sBands, 1, d, dBands, w);
+	    for (int k = 0; k < d.length; k++) {
+		d[k] *= dstScale[k % dBands];
+	    }
+	    dst.setPixels(dst.getMinX(), dst.getMinY() + i, w, 1, d);
+	}
+    }
+
+    private void copyExtraBands(int[] s, int sBands, int max, int[] d, int dBands, int w) {
+	int first = transform.getNumOutputComponents();
+	int srcFirst = transform.getNumInputComponents();
+	for (int b = first; b < dBands; b++) {
+	    int sb = srcFirst + b - first;
+	    for (int k = 0; k < w; k++) {
+		d[k * dBands + b] = sb < sBands ? s[k * sBands + sb] : max;
+	    }
+	}
+    }
+
+    private void copyExtraBands(float[] s, int sBands, float max, float[] d, int dBands, int w) {
+	int first = transform.getNumOutputComponents();
+	int srcFirst = transform.getNumInputComponents();
+	for (int b = first; b < dBands; b++) {
+	    int sb = srcFirst + b - first;
+	    for (int k = 0; k < w; k++) {
+		d[k * dBands + b] = sb < sBands ? s[k * sBands + sb] : max;
+	    }
+	}
+    }
+
+    /**
+     * @return maximal sample value for each band (1 for floating point data)
+     */
+    private static float[] scale(Raster r) {
+	SampleModel sm = r.getSampleModel();
+	float[] scale = new float[r.getNumBands()];
+	int type = sm.getDataType();
+	for (int b = 0; b < scale.length; b++) {
+	    if (type == DataBuffer.TYPE_FLOAT || type == DataBuffer.TYPE_DOUBLE) {
+		scale[b] = 1;
+	    } else {
+		scale[b] = (1L << sm.getSampleSize(b)) - 1;
+	    }
+	}
+	return scale;
+    }
+
+    /**
+     * @return sample size in bits if it is the same for all bands of integer
+     *         raster, otherwise -1
+     */
+    private static int sampleSize(Raster r) {
+	SampleModel sm = r.getSampleModel();
+	int type = sm.getDataType();
+	if (type == DataBuffer.TYPE_FLOAT || type == DataBuffer.TYPE_DOUBLE) {
+	    return -1;
+	}
+	int size = sm.getSampleSize(0);
+	for (int b = 1; b < sm.getNumBands(); b++) {
+	    if (sm.getSampleSize(b) != size) {
+		return -1;
+	    }
+	}
+	return size;
+    }
+
+    private static boolean isPackedRGB(Raster r) {
+	SampleModel sm = r.getSampleModel();
+	if (!(sm instanceof SinglePixelPackedSampleModel) || sm.getDataType() != DataBuffer.TYPE_INT) {
+	    return false;
+	}
+	int[] masks = ((SinglePixelPackedSampleModel) sm).getBitMasks();
+	if (masks.length < 3 || masks[0] != 0xFF0000 || masks[1] != 0xFF00 || masks[2] != 0xFF) {
+	    return false;
+	}
+	return masks.length == 3 || (masks.length == 4 && masks[3] == 0xFF000000);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.smartg.icc;
+
+/**
+ * Open addressing map from 4 byte signature to value. Lookup doesn't
+ * allocate.
+ * <p>
+ * Map is filled once (usually in static initializer) and is read only
+ * afterwards. If signature is put more than once, first value wins.
+ */
+public final class SignatureMap<V> {
+
+    private final int[] keys;
+    private final Object[] values;
+    private final int mask;
+    private final int shift;
+
+    /**
+     * @param capacity
+     *            maximal number of entries
+     */
+    public SignatureMap(int capacity) {
+	int size = Integer.highestOneBit(Math.max(capacity, 2) * 2 - 1) * 2;
+	keys = new int[size];
+	values = new Object[size];
+	mask = size - 1;
+	shift = Integer.numberOfLeadingZeros(mask);
+    }
+
+    private int index(int key) {
+	return (key * 0x9E3779B9) >>> shift;
+    }
+
+    /**
+     * Adds mapping if <code>signature</code> is not mapped yet.
+     */
+    public void put(long signature, V value) {
+	if (value == null) {
+	    throw new NullPointerException();
+	}
+	int key = (int) signature;
+	int i = index(key);
+	while (values[i] != null) {
+	    if (keys[i] == key) {
+		return;
+	    }
+	    i = (i + 1) & mask;
+	}
+	keys[i] = key;
+	values[i] = value;
+    }
+
+    /**
+     * @return value mapped to <code>signature</code> or null
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long signature) {
+	if ((signature & 0xFFFFFFFF00000000L) != 0) {
+	    return null;
+	}
+	int key = (int) signature;
+	int i = index(key);
+	Object v;
+	while ((v = values[i]) != null) {
+	    if (keys[i] == key) {
+		return (V) v;
+	    }
+	    i = (i + 1) & mask;
+	}
+	return null;
+    }
+}
@@ -31,39 +31,79 @@ package com.smartg.icc;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import com.imagero.uio.RandomAccessInput;
 import com.imagero.uio.io.IOutils;
+import com.smartg.icc.tag.ByteBufferInputStream;
 import com.smartg.icc.tag.Tag;
+import com.smartg.icc.tag.Tag.CLUT;
+import com.smartg.icc.tag.Tag.Lut;
+import com.smartg.icc.tag.Tag.LutAtoB;
 import com.smartg.icc.tag.TagReader;
 import com.smartg.icc.tag.TagType;
 
+/**
+ * Tag table of profile. Tags are decoded on first request and memoized, tags
+ * which can't be read are reported on every request.
+ */
 class TagTable {
     private int tagCount;
     private TagTableEntry[] tags;
     private HashMap<TagType, TagTableEntry> tagMap = new HashMap<TagType, TagTableEntry>();
 
+    // tag data source (whole profile), released when all tags are decoded
+    private volatile ByteBuffer buffer;
+    private final AtomicInteger pending = new AtomicInteger();
+
     TagTable(InputStream in) throws IOException {
 	tagCount = IOutils.readIntBE(in);
 	tags = new TagTableEntry[tagCount];
+	// entries pointing to the same data share one decoded tag
+	HashMap<Long, TagTableEntry> ranges = new HashMap<Long, TagTableEntry>();
 	for (int i = 0; i < tagCount; i++) {
 	    TagType tagType = TagType.create(IOutils.readUnsignedIntBE(in));
 	    long offset = IOutils.readUnsignedIntBE(in);
 	    long size = IOutils.readUnsignedIntBE(in);
 	    TagTableEntry entry = new TagTableEntry(tagType, offset, size);
+	    Long range = Long.valueOf((offset << 32) | size);
+	    TagTableEntry shared = ranges.get(range);
+	    if (shared != null) {
+		entry.setShared(shared);
+	    } else {
+		ranges.put(range, entry);
+		pending.incrementAndGet();
+	    }
 	    tags[i] = entry;
 	    tagMap.put(tagType, entry);
 	}
     }
 
+    /**
+     * @return end of tag data (offset of first byte after last tag)
+     */
+    long getDataEnd() {
+	long end = 0;
+	for (int i = 0; i < tagCount; i++) {
+	    end = Math.max(end, tags[i].getOffset() + tags[i].getSize());
+	}
+	return end;
+    }
+
     void print() {
 	Logger l = Logger.getLogger("com.imagero.icc");
 	for (int i = 0; i < tagCount; i++) {
-	    l.info(tags[i] + "\t" + tags[i].getTag());
+	    l.info(tags[i] + "\t" + getTag(tags[i]));
 	}
     }
 
@@ -81,38 +121,157 @@ class TagTable {
 	};
     }
 
+    /**
+     * @return tag or null if there is no such tag or tag type is not
+     *         supported
+     * @throws IllegalStateException
+     *             if tag data can't be read
+     */
     Tag getTag(TagType tagType) {
 	TagTableEntry tagTableEntry = tagMap.get(tagType);
 	if (tagTableEntry != null) {
-	    return tagTableEntry.getTag();
+	    return getTag(tagTableEntry);
 	}
 	return null;
     }
 
-    private static final boolean debug = false;
-    
-    void readTags(RandomAccessInput rai) throws IOException {
-	Enumeration<TagTableEntry> tags = tags();
-	while (tags.hasMoreElements()) {
-	    TagTableEntry next = tags.nextElement();
-	    if(debug) {
-		System.out.println(next);
+    private Tag getTag(TagTableEntry entry) {
+	entry = entry.getShared();
+	if (!entry.isDecoded()) {
+	    synchronized (entry) {
+		if (!entry.isDecoded()) {
+		    try {
+			entry.setTag(decode(entry));
+		    } catch (IOException ex) {
+			entry.setError(ex);
+		    } catch (RuntimeException ex) {
+			entry.setError(ex);
+		    }
+		    if (pending.decrementAndGet() == 0) {
+			buffer = null;
+		    }
+		}
 	    }
-	    InputStream in0 = rai.createInputStream(next.getOffset(), next.getSize());
-	    long sig = IOutils.readUnsignedIntBE(in0);
-	    TagType tagType = TagType.create(sig);
-	    if (tagType != null) {
-		TagReader reader = tagType.getTagReader();
-		if (reader != null) {
-		    Tag tag = reader.read((int) next.getSize(), in0);
-		    next.setTag(tag);
-		} else {
-		    Logger.getGlobal().log(Level.WARNING, "TagReader not found for " + tagType);
+	}
+	Exception error = entry.getError();
+	if (error != null) {
+	    throw new IllegalStateException("Can't read " + entry, error);
+	}
+	return entry.getTag();
+    }
+
+    /**
+     * Decodes all tags not decoded yet, including values of mapped CLUTs.
+     * Tags which can't be read are skipped, error is thrown when such tag is
+     * requested.
+     */
+    void preloadAll() {
+	for (int i = 0; i < tagCount; i++) {
+	    preload(tags[i]);
+	}
+    }
+
+    private void preload(TagTableEntry entry) {
+	Tag tag;
+	try {
+	    tag = getTag(entry);
+	} catch (IllegalStateException ex) {
+	    // recorded in entry
+	    return;
+	}
+	// CLUT values of mapped tables are decoded on first use otherwise
+	CLUT clut = null;
+	if (tag instanceof Lut) {
+	    clut = ((Lut) tag).getClut();
+	} else if (tag instanceof LutAtoB) {
+	    clut = ((LutAtoB) tag).getClut();
+	}
+	if (clut != null) {
+	    clut.load();
+	}
+    }
+
+    /**
+     * Decodes all tags not decoded yet (including values of mapped CLUTs)
+     * on <code>executor</code>, largest first, and waits until all of them
+     * are done. Every tag is decoded from its own slice of profile buffer,
+     * so tasks don't block each other.
+     */
+    void preloadAll(Executor executor) throws InterruptedException {
+	ArrayList<TagTableEntry> list = new ArrayList<TagTableEntry>();
+	for (int i = 0; i < tagCount; i++) {
+	    // decoded tags may still have mapped CLUT
+	    if (tags[i].getShared() == tags[i]) {
+		list.add(tags[i]);
+	    }
+	}
+	Collections.sort(list, new Comparator<TagTableEntry>() {
+	    public int compare(TagTableEntry o1, TagTableEntry o2) {
+		return o1.getSize() < o2.getSize() ? 1 : (o1.getSize() > o2.getSize() ? -1 : 0);
+	    }
+	});
+	final CountDownLatch done = new CountDownLatch(list.size());
+	for (final TagTableEntry entry : list) {
+	    Runnable task = new Runnable() {
+		public void run() {
+		    try {
+			preload(entry);
+		    } finally {
+			done.countDown();
+		    }
 		}
-	    } else {
-		Logger.getGlobal().log(Level.WARNING, "Unknown TagType value: " + tagType);
+	    };
+	    try {
+		executor.execute(task);
+	    } catch (RejectedExecutionException ex) {
+		task.run();
 	    }
 	}
+	done.await();
+    }
+
+    private static final boolean debug = false;
+    
+    /**
+     * Sets source of tag data (whole profile). Table keeps reference to
+     * <code>buffer</code> until all tags are decoded, CLUTs of direct
+     * buffers may stay backed by it until they are used.
+     */
+    void setSource(ByteBuffer buffer) {
+	if (pending.get() > 0) {
+	    this.buffer = buffer;
+	}
+    }
+
+    private InputStream open(TagTableEntry entry) throws IOException {
+	long offset = entry.getOffset();
+	long size = entry.getSize();
+	if (offset + size > buffer.limit()) {
+	    throw new IOException("Tag data out of profile bounds");
+	}
+	return new ByteBufferInputStream(buffer, (int) offset, (int) size);
+    }
+
+    /**
+     * @return decoded tag or null if tag type is unknown or not supported
+     */
+    private Tag decode(TagTableEntry next) throws IOException {
+	if (debug) {
+	    System.out.println(next);
+	}
+	InputStream in0 = open(next);
+	long sig = IOutils.readUnsignedIntBE(in0);
+	TagType tagType = TagType.create(sig);
+	if (tagType != null) {
+	    TagReader reader = tagType.getTagReader();
+	    if (reader != null) {
+		return reader.read((int) next.getSize(), in0);
+	    }
+	    Logger.getGlobal().log(Level.WARNING, "TagReader not found for " + tagType);
+	} else {
+	    Logger.getGlobal().log(Level.WARNING, "Unknown TagType value: " + sig);
+	}
+	return null;
     }
 
 }
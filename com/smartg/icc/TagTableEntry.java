@@ -37,6 +37,10 @@ class TagTableEntry {
     private final long offset;
     private final long size;
     private Tag tag;
+    private Exception error;
+    private volatile boolean decoded;
+    // entry with the same data decoded instead of this one
+    private TagTableEntry shared = this;
 
     TagType getTagType() {
 	return tagType;
@@ -70,6 +74,38 @@ class TagTableEntry {
 
     void setTag(Tag tag) {
 	this.tag = tag;
+	decoded = true;
+    }
+
+    /**
+     * @return exception thrown while decoding tag or null
+     */
+    Exception getError() {
+	return error;
+    }
+
+    void setError(Exception error) {
+	this.error = error;
+	decoded = true;
+    }
+
+    /**
+     * @return entry whose tag is shared by this entry (same offset and size)
+     *         or this entry
+     */
+    TagTableEntry getShared() {
+	return shared;
+    }
+
+    void setShared(TagTableEntry shared) {
+	this.shared = shared;
+    }
+
+    /**
+     * @return true if tag was already decoded (or decoding failed)
+     */
+    boolean isDecoded() {
+	return decoded;
     }
 
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.smartg.icc;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Bounded LRU cache of ready to use transforms keyed by source digest,
+ * destination digest, rendering intent and pixel format.
+ * <p>
+ * Lookup tables for requested pixel format are built before transform is
+ * cached. Cached transforms are shared between threads.
+ */
+public class TransformCache extends LruCache<TransformCache.Key, ICC_Transform> {
+
+    private static final TransformCache defaultCache = new TransformCache(32);
+
+    /**
+     * @return process-wide cache
+     */
+    public static TransformCache getDefault() {
+	return defaultCache;
+    }
+
+    public TransformCache(int maximumSize) {
+	super(maximumSize);
+    }
+
+    /**
+     * Returns cached transform or creates new one.
+     *
+     * @return transform or null if profiles are not supported (see
+     *         {@link ICC_Transform#create(ICCProfile, ICCProfile, RenderingIntent)})
+     */
+    public ICC_Transform get(ICCProfile source, ICCProfile destination, RenderingIntent intent, PixelFormat format) throws IOException {
+	return get(source, destination, intent, format, 0);
+    }
+
+    /**
+     * Returns cached transform baked into 3D LUT with
+     * <code>gridPoints</code> points per dimension or creates new one.
+     *
+     * @see ICC_Transform#bake(int)
+     */
+    public ICC_Transform getBaked(ICCProfile source, ICCProfile destination, RenderingIntent intent, PixelFormat format, int gridPoints)
+	    throws IOException {
+	if (gridPoints < 2) {
+	    throw new IllegalArgumentException("gridPoints: " + gridPoints);
+	}
+	return get(source, destination, intent, format, gridPoints);
+    }
+
+    private ICC_Transform get(ICCProfile source, ICCProfile destination, RenderingIntent intent, PixelFormat format, int gridPoints)
+	    throws IOException {
+	Key key = new Key(source.getDigest(), destination.getDigest(), intent, format, gridPoints);
+	ICC_Transform transform = lookup(key);
+	if (transform != null) {
+	    return transform;
+	}
+	transform = ICC_Transform.create(source, destination, intent);
+	if (transform == null) {
+	    return null;
+	}
+	if (gridPoints > 0) {
+	    transform = transform.bake(gridPoints);
+	} else {
+	    transform.prepare(format);
+	}
+	return put(key, transform);
+    }
+
+    static final class Key {
+	private final byte[] source;
+	private final byte[] destination;
+	private final RenderingIntent intent;
+	private final PixelFormat format;
+	private final int gridPoints;
+	private final int hash;
+
+	Key(byte[] source, byte[] destination, RenderingIntent intent, PixelFormat format, int gridPoints) {
+	    this.source = source;
+	    this.destination = destination;
+	    this.intent = intent;
+	    this.format = format;
+	    this.gridPoints = gridPoints;
+	    int h = Arrays.hashCode(source);
+	    h = 31 * h + Arrays.hashCode(destination);
+	    h = 31 * h + intent.hashCode();
+	    h = 31 * h + format.hashCode();
+	    this.hash = 31 * h + gridPoints;
+	}
+
+	@Override
+	public int hashCode() {
+	    return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+	    if (!(obj instanceof Key)) {
+		return false;
+	    }
+	    Key k = (Key) obj;
+	    return intent == k.intent && format == k.format && gridPoints == k.gridPoints && Arrays.equals(source, k.source)
+		    && Arrays.equals(destination, k.destination);
+	}
+    }
+}
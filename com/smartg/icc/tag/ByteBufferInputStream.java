@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.smartg.icc.tag;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * InputStream reading directly from (possibly memory mapped) ByteBuffer.
+ * <p>
+ * Readers may take {@link #slice(int)} of the remaining data instead of
+ * copying it to heap.
+ */
+public class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+    private int mark;
+
+    /**
+     * Creates stream over remaining bytes of <code>buffer</code>. Position
+     * and limit of <code>buffer</code> are not changed.
+     */
+    public ByteBufferInputStream(ByteBuffer buffer) {
+	this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+	this.mark = this.buffer.position();
+    }
+
+    /**
+     * Creates stream over <code>length</code> bytes of <code>buffer</code>
+     * starting at absolute <code>offset</code>.
+     */
+    public ByteBufferInputStream(ByteBuffer buffer, int offset, int length) {
+	ByteBuffer b = buffer.duplicate();
+	b.limit(offset + length);
+	b.position(offset);
+	this.buffer = b.order(ByteOrder.BIG_ENDIAN);
+	this.mark = offset;
+    }
+
+    @Override
+    public int read() {
+	if (!buffer.hasRemaining()) {
+	    return -1;
+	}
+	return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+	if (len == 0) {
+	    return 0;
+	}
+	int remaining = buffer.remaining();
+	if (remaining == 0) {
+	    return -1;
+	}
+	int n = Math.min(len, remaining);
+	buffer.get(b, off, n);
+	return n;
+    }
+
+    @Override
+    public long skip(long n) {
+	if (n <= 0) {
+	    return 0;
+	}
+	int k = (int) Math.min(n, buffer.remaining());
+	buffer.position(buffer.position() + k);
+	return k;
+    }
+
+    @Override
+    public int available() {
+	return buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+	return true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+	mark = buffer.position();
+    }
+
+    @Override
+    public synchronized void reset() {
+	buffer.position(mark);
+    }
+
+    /**
+     * @return current absolute position in underlying buffer
+     */
+    public int position() {
+	return buffer.position();
+    }
+
+    /**
+     * @return true if underlying buffer is direct (e.g. memory mapped file)
+     */
+    public boolean isDirect() {
+	return buffer.isDirect();
+    }
+
+    /**
+     * Returns next <code>length</code> bytes as big endian buffer sharing
+     * content with this stream and skips them.
+     */
+    public ByteBuffer slice(int length) {
+	if (length > buffer.remaining()) {
+	    throw new IndexOutOfBoundsException("length: " + length + ", remaining: " + buffer.remaining());
+	}
+	ByteBuffer b = buffer.slice();
+	b.limit(length);
+	buffer.position(buffer.position() + length);
+	return b.order(ByteOrder.BIG_ENDIAN);
+    }
+}
@@ -29,10 +29,10 @@
  */
 package com.smartg.icc.tag;
 
+import java.nio.ByteBuffer;
 import java.text.NumberFormat;
 
 import com.smartg.icc.DateTimeNumber;
-import com.smartg.icc.MDArray;
 
 public abstract class Tag {
 
@@ -203,6 +203,15 @@ public abstract class Tag {
     public static interface ICurve {
 	float get(float a);
 
+	/**
+	 * Evaluates curve for <code>length</code> values of <code>src</code>
+	 * and stores results in <code>dst</code>. Strides are distances
+	 * between consecutive values, so single channel of interleaved data
+	 * can be processed. <code>src</code> and <code>dst</code> may be the
+	 * same range.
+	 */
+	void get(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride, int length);
+
 	ICurve inverse();
     }
 
@@ -284,7 +293,6 @@ public abstract class Tag {
 	int numberOfOutputTableEntries;// m
 
 	float[] inputTables;
-	float[] clutValues;
 	float[] outputTables;
 
 	CLUT clut;
@@ -380,7 +388,7 @@ public abstract class Tag {
 	}
 
 	public float[] getClutValues() {
-	    return clutValues;
+	    return clut != null ? clut.getValues() : null;
 	}
 
 	public float[] getOutputTables() {
@@ -388,47 +396,216 @@ public abstract class Tag {
 	}
     }
 
+    /**
+     * Values of a single CLUT grid point. View of CLUT storage.
+     */
     public static class GridPoint {
-	float[] data;
+	final CLUT clut;
+	final int offset;
 
-	GridPoint(int size) {
-	    data = new float[size];
+	GridPoint(CLUT clut, int offset) {
+	    this.clut = clut;
+	    this.offset = offset;
 	}
 
+	/**
+	 * Returns grid point values normalized to [0, 1]. Table is stored in
+	 * one flat array, so a new array is returned on each call and
+	 * changing it does not change the table.
+	 *
+	 * @return copy of grid point values
+	 */
 	public float[] getData() {
+	    clut.load();
+	    float[] data = new float[clut.outputCount];
+	    for (int i = 0; i < data.length; i++) {
+		data[i] = clut.value(offset + i);
+	    }
 	    return data;
 	}
+
+	public float get(int output) {
+	    return clut.getValue(offset + output);
+	}
+
+	public int getSize() {
+	    return clut.outputCount;
+	}
     }
 
+    /**
+     * Color lookup table. Grid is stored in one array in ICC order (first
+     * input varies slowest), values of a grid point are stored contiguously.
+     * <p>
+     * In compact storage mode (default) 8 and 16 bit tables keep source
+     * precision (byte[] or short[]), otherwise values are widened to float.
+     */
     public static class CLUT {
+	private static volatile boolean compactStorage = true;
+
+	/**
+	 * Sets storage mode for CLUTs read afterwards. Mode is recorded when
+	 * lut tag is read (on first request of the tag), tables which stay
+	 * mapped keep it until they are decoded.
+	 */
+	public static void setCompactStorage(boolean b) {
+	    compactStorage = b;
+	}
+
+	public static boolean isCompactStorage() {
+	    return compactStorage;
+	}
+
 	final int inputCount, outputCount;
 	int[] gridPointCount;
-	GridPoint[] table;
-	MDArray mda;
+	final int[] strides;
+	final int size;
+
+	// only one of them is used
+	float[] values;
+	short[] values16;
+	byte[] values8;
+
+	// table in (memory mapped) profile buffer, decoded on first access
+	private volatile ByteBuffer mapped;
+	private int mappedPrecision;
+	private boolean mappedCompact;
 
 	CLUT(int inputCount, int[] gridPointCount, int outputCount) {
 	    this.inputCount = inputCount;
 	    this.gridPointCount = gridPointCount;
 	    this.outputCount = outputCount;
 
-	    int size = gridPointCount[0];
-	    for (int i = 1; i < inputCount; i++) {
-		size *= gridPointCount[i];
+	    strides = new int[inputCount];
+	    int stride = outputCount;
+	    for (int i = inputCount - 1; i >= 0; i--) {
+		strides[i] = stride;
+		stride *= gridPointCount[i];
 	    }
+	    size = stride;
+	}
 
-	    table = new GridPoint[size];
-	    for (int i = 0; i < table.length; i++) {
-		table[i] = new GridPoint(outputCount);
+	/**
+	 * Allocates storage for table with given precision (1 or 2 bytes per
+	 * value).
+	 */
+	void allocate(int precision) {
+	    allocate(precision, compactStorage);
+	}
+
+	private void allocate(int precision, boolean compact) {
+	    if (compact && precision == 1) {
+		values8 = new byte[size];
+	    } else if (compact && precision == 2) {
+		values16 = new short[size];
+	    } else {
+		values = new float[size];
+	    }
+	}
+
+	/**
+	 * Keeps table values in <code>buffer</code> (1 or 2 bytes per value,
+	 * big endian) until they are accessed first time. Mapping only
+	 * defers decoding: on first access values are copied to heap storage
+	 * chosen now (see {@link #setCompactStorage(boolean)}) and
+	 * <code>buffer</code> is released.
+	 */
+	void map(ByteBuffer buffer, int precision) {
+	    mappedPrecision = precision;
+	    mappedCompact = compactStorage;
+	    mapped = buffer;
+	}
+
+	/**
+	 * @return true if table values are not decoded yet and still backed
+	 *         by profile buffer
+	 */
+	public boolean isMapped() {
+	    return mapped != null;
+	}
+
+	/**
+	 * Decodes table values now if they are still mapped (otherwise they
+	 * are decoded on first access).
+	 */
+	public void load() {
+	    if (mapped != null) {
+		synchronized (this) {
+		    ByteBuffer b = mapped;
+		    if (b != null) {
+			decode(b.duplicate(), mappedPrecision, mappedCompact);
+			mapped = null;
+		    }
+		}
 	    }
-	    int[] dims = new int[inputCount];
-	    for (int i = 0; i < dims.length; i++) {
-		dims[i] = gridPointCount[i];
+	}
+
+	/**
+	 * Decodes table values from <code>b</code> (1 or 2 bytes per value,
+	 * big endian) in bulk.
+	 */
+	void decode(ByteBuffer b, int precision) {
+	    decode(b, precision, compactStorage);
+	}
+
+	private void decode(ByteBuffer b, int precision, boolean compact) {
+	    allocate(precision, compact);
+	    if (values16 != null) {
+		b.asShortBuffer().get(values16);
+	    } else if (values8 != null) {
+		b.get(values8);
+	    } else if (precision == 2) {
+		for (int i = 0; i < size; i++) {
+		    values[i] = (b.getShort() & 0xFFFF) / 65535f;
+		}
+	    } else {
+		for (int i = 0; i < size; i++) {
+		    values[i] = (b.get() & 0xFF) / 255f;
+		}
 	    }
-	    mda = new MDArray(dims);
 	}
 
+	/**
+	 * @return offset of grid point in storage
+	 */
+	public int getOffset(int[] coords) {
+	    int offset = 0;
+	    for (int i = 0; i < inputCount; i++) {
+		offset += coords[i] * strides[i];
+	    }
+	    return offset;
+	}
+
+	/**
+	 * Returns values of grid point at <code>coords</code>. A new array is
+	 * returned on each call, changing it does not change the table.
+	 *
+	 * @return copy of grid point values
+	 * @see GridPoint#getData()
+	 */
 	public float[] get(int[] coords) {
-	    return table[mda.getOffset(coords)].data;
+	    return new GridPoint(this, getOffset(coords)).getData();
+	}
+
+	/**
+	 * @return value at <code>offset</code> normalized to [0, 1]
+	 */
+	public float getValue(int offset) {
+	    load();
+	    return value(offset);
+	}
+
+	/**
+	 * Same as {@link #getValue(int)}, but expects table to be loaded.
+	 */
+	float value(int offset) {
+	    if (values16 != null) {
+		return (values16[offset] & 0xFFFF) / 65535f;
+	    }
+	    if (values8 != null) {
+		return (values8[offset] & 0xFF) / 255f;
+	    }
+	    return values[offset];
 	}
 
 	public int getInputCount() {
@@ -443,8 +620,71 @@ public abstract class Tag {
 	    return gridPointCount;
 	}
 
+	/**
+	 * @return distance in storage between neighbor grid points for each
+	 *         input
+	 */
+	public int[] getStrides() {
+	    return strides.clone();
+	}
+
+	public int getGridPointsTotal() {
+	    return size / outputCount;
+	}
+
 	public GridPoint getGridPoint(int index) {
-	    return table[index];
+	    return new GridPoint(this, index * outputCount);
+	}
+
+	/**
+	 * @return all values normalized to [0, 1]; storage itself for float
+	 *         tables, otherwise new float copy of compact storage (not
+	 *         cached, use {@link #getShortValues()} or
+	 *         {@link #getByteValues()} to avoid it)
+	 */
+	public float[] getValues() {
+	    load();
+	    if (values != null) {
+		return values;
+	    }
+	    float[] f = new float[size];
+	    for (int i = 0; i < size; i++) {
+		f[i] = value(i);
+	    }
+	    return f;
+	}
+
+	/**
+	 * @return 16 bit storage or null
+	 */
+	public short[] getShortValues() {
+	    load();
+	    return values16;
+	}
+
+	/**
+	 * @return 8 bit storage or null
+	 */
+	public byte[] getByteValues() {
+	    load();
+	    return values8;
+	}
+
+	/**
+	 * @return heap memory used by table values (in bytes); 0 if table
+	 *         is still mapped
+	 */
+	public long getMemory() {
+	    if (mapped != null) {
+		return 0;
+	    }
+	    if (values16 != null) {
+		return size * 2L;
+	    }
+	    if (values8 != null) {
+		return size;
+	    }
+	    return values != null ? size * 4L : 0;
 	}
     }
 
@@ -466,8 +706,8 @@ public abstract class Tag {
 
 	CLUT clut;
 
-	protected LutAtoB() {
-	    super(TagType.LUT_A_TO_B_TYPE);
+	protected LutAtoB(TagType tagType) {
+	    super(tagType);
 	}
 
 	@Override
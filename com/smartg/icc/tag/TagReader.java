@@ -33,6 +33,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -83,6 +84,42 @@ public abstract class TagReader {
 	return d / 65535f;
     }
 
+    /**
+     * Returns next <code>length</code> bytes of <code>in</code> as big endian
+     * buffer. Buffer shares memory with ByteBufferInputStream, otherwise
+     * bytes are copied once.
+     */
+    static ByteBuffer readBuffer(InputStream in, int length) throws IOException {
+	if (in instanceof ByteBufferInputStream) {
+	    return ((ByteBufferInputStream) in).slice(length);
+	}
+	byte[] b = new byte[length];
+	IOutils.readFully(in, b);
+	return ByteBuffer.wrap(b);
+    }
+
+    /**
+     * Reads <code>dst.length</code> unsigned 16 bit values normalized to [0,
+     * 1].
+     */
+    static void readU16(InputStream in, float[] dst) throws IOException {
+	ByteBuffer b = readBuffer(in, dst.length * 2);
+	for (int i = 0, k = 0; i < dst.length; i++, k += 2) {
+	    dst[i] = (b.getShort(k) & 0xFFFF) / 65535f;
+	}
+    }
+
+    /**
+     * Reads <code>dst.length</code> unsigned 8 bit values normalized to [0,
+     * 1].
+     */
+    static void readU8(InputStream in, float[] dst) throws IOException {
+	ByteBuffer b = readBuffer(in, dst.length);
+	for (int i = 0; i < dst.length; i++) {
+	    dst[i] = (b.get(i) & 0xFF) / 255f;
+	}
+    }
+
     TagReader() {
 
     }
@@ -173,10 +210,7 @@ public abstract class TagReader {
 	    int entryCount = IOutils.readIntBE(in);
 	    float[] values = new float[entryCount];
 	    if (entryCount > 1) {
-		for (int i = 0; i < entryCount; i++) {
-		    int k = IOutils.readShortBE(in);
-		    values[i] = k / 65535f;
-		}
+		readU16(in, values);
 	    } else if (entryCount == 1) {
 		float k = in.read();
 		float f = in.read();
@@ -245,8 +279,14 @@ public abstract class TagReader {
 	    res.e21 = read_s15Fixed16(in);
 	    res.e22 = read_s15Fixed16(in);
 
-	    res.numberOfInputTableEntries = IOutils.readShortBE(in);
-	    res.numberOfOutputTableEntries = IOutils.readShortBE(in);
+	    if (tagType.getValue() == ICC_Constants.LUT_16_TYPE) {
+		res.numberOfInputTableEntries = IOutils.readShortBE(in);
+		res.numberOfOutputTableEntries = IOutils.readShortBE(in);
+	    } else {
+		// lut8 tables have always 256 entries and no entry counts
+		res.numberOfInputTableEntries = 256;
+		res.numberOfOutputTableEntries = 256;
+	    }
 
 	    int N = res.numberOfInputTableEntries;
 	    int I = res.numberOfInputChannels;
@@ -255,7 +295,6 @@ public abstract class TagReader {
 	    int M = res.numberOfOutputTableEntries;
 
 	    res.inputTables = new float[N * I];
-	    res.clutValues = new float[(int) (Math.pow(G, I) * O)];
 	    res.outputTables = new float[M * O];
 	    int[] gpCount = new int[I];
 	    for (int i = 0; i < gpCount.length; i++) {
@@ -264,56 +303,47 @@ public abstract class TagReader {
 	    res.clut = new CLUT(I, gpCount, O);
 
 	    if (tagType.getValue() == ICC_Constants.LUT_16_TYPE) {
-		for (int i = 0; i < res.inputTables.length; i++) {
-		    res.inputTables[i] = IOutils.readShortBE(in) / 65535f;
-		}
+		readU16(in, res.inputTables);
 
 		/* int count = */readClut16(res.clut, in);
 
-		for (int i = 0; i < res.outputTables.length; i++) {
-		    res.outputTables[i] = IOutils.readShortBE(in) / 65535f;
-		}
+		readU16(in, res.outputTables);
 	    } else if (tagType.getValue() == ICC_Constants.LUT_8_TYPE) {
-		for (int i = 0; i < res.inputTables.length; i++) {
-		    res.inputTables[i] = in.read() / 255f;
-		}
+		readU8(in, res.inputTables);
 
-		// for (int i = 0; i < res.clutValues.length; i++) {
-		// res.clutValues[i] = in.read() / 255f;
-		// }
 		/* int count = */readClut8(res.clut, in);
 
-		for (int i = 0; i < res.outputTables.length; i++) {
-		    res.outputTables[i] = in.read() / 255f;
-		}
+		readU8(in, res.outputTables);
 	    }
 	    return res;
 	}
     }
 
-    static int readClut16(CLUT clut, InputStream in) throws IOException {
-	int count = 0;
+    /**
+     * Tables in direct (memory mapped) buffers are decoded on first use,
+     * tables in heap buffers are decoded now, so that profile data need not
+     * be retained.
+     */
+    private static boolean isMappable(InputStream in) {
+	return in instanceof ByteBufferInputStream && ((ByteBufferInputStream) in).isDirect();
+    }
 
-	for (int g = 0; g < clut.table.length; g++) {
-	    for (int o = 0; o < clut.outputCount; o++) {
-		clut.table[g].data[o] = read_u16Fixed16(in) / 65535f;
-		count++;
-	    }
+    static int readClut16(CLUT clut, InputStream in) throws IOException {
+	if (isMappable(in)) {
+	    clut.map(((ByteBufferInputStream) in).slice(clut.size * 2), 2);
+	    return clut.size;
 	}
-	return count;
+	clut.decode(readBuffer(in, clut.size * 2), 2);
+	return clut.size;
     }
 
     static int readClut8(CLUT clut, InputStream in) throws IOException {
-	int count = 0;
-
-	for (int g = 0; g < clut.table.length; g++) {
-	    for (int o = 0; o < clut.outputCount; o++) {
-		clut.table[g].data[o] = in.read() / 255f;
-		count++;
-	    }
+	if (isMappable(in)) {
+	    clut.map(((ByteBufferInputStream) in).slice(clut.size), 1);
+	    return clut.size;
 	}
-
-	return count;
+	clut.decode(readBuffer(in, clut.size), 1);
+	return clut.size;
     }
 
     static class LutAtoB_Reader extends TagReader {
@@ -323,7 +353,7 @@ public abstract class TagReader {
 
 	@Override
 	public Tag read(int length, InputStream in) throws IOException {
-	    LutAtoB res = new LutAtoB();
+	    LutAtoB res = new LutAtoB(tagType);
 	    res.setReserved(IOutils.readUnsignedIntBE(in));
 	    res.numberOfInputChannels = in.read();
 	    res.numberOfOutputChannels = in.read();
@@ -334,22 +364,27 @@ public abstract class TagReader {
 	    res.offsetToCLUT = IOutils.readUnsignedIntBE(in);
 	    res.offsetToFirstA_Curve = IOutils.readUnsignedIntBE(in);
 
-	    byte[] data = new byte[length - 32];
-	    IOutils.readFully(in, data);
+	    // tag body; shares memory mapped profile buffer if possible
+	    ByteBuffer data = readBuffer(in, length - 32);
+
+	    // A curves are on device side, B and M curves on PCS side
+	    boolean aToB = tagType.getValue() == ICC_Constants.LUT_A_TO_B_TYPE;
+	    int deviceChannels = aToB ? res.numberOfInputChannels : res.numberOfOutputChannels;
+	    int pcsChannels = aToB ? res.numberOfOutputChannels : res.numberOfInputChannels;
 
 	    if (res.offsetToFirstB_Curve > 0) {
 		int offset = (int) (res.offsetToFirstB_Curve - 32);
-		res.bCurves = readCurves(offset, res.numberOfOutputChannels, data);
+		res.bCurves = readCurves(offset, pcsChannels, data);
 	    }
 
 	    if (res.offsetToFirstM_Curve > 0) {
 		int offset = (int) (res.offsetToFirstM_Curve - 32);
-		res.mCurves = readCurves(offset, res.numberOfOutputChannels, data);
+		res.mCurves = readCurves(offset, pcsChannels, data);
 	    }
 
 	    if (res.offsetToFirstA_Curve > 0) {
 		int offset = (int) (res.offsetToFirstA_Curve - 32);
-		res.aCurves = readCurves(offset, res.numberOfInputChannels, data);
+		res.aCurves = readCurves(offset, deviceChannels, data);
 	    }
 
 	    if (res.offsetToMatrix > 0) {
@@ -365,10 +400,10 @@ public abstract class TagReader {
 	    return res;
 	}
 
-	CLUT readClutInfo(int offset, byte[] data, int inputCount, int outputCount) throws IOException {
-	    int[] gridPoints = new int[15];
-	    InputStream in = new ByteArrayInputStream(data, offset, data.length - offset);
-	    for (int i = 0; i < 15; i++) {
+	CLUT readClutInfo(int offset, ByteBuffer data, int inputCount, int outputCount) throws IOException {
+	    int[] gridPoints = new int[16];
+	    InputStream in = new ByteBufferInputStream(data, offset, data.limit() - offset);
+	    for (int i = 0; i < 16; i++) {
 		gridPoints[i] = in.read();
 	    }
 	    int precision = in.read();
@@ -377,27 +412,30 @@ public abstract class TagReader {
 	    in.read();
 	    in.read();
 
-	    CLUT clut = new CLUT(inputCount, gridPoints, outputCount);
+	    int[] gridPointCount = new int[inputCount];
+	    System.arraycopy(gridPoints, 0, gridPointCount, 0, inputCount);
+	    CLUT clut = new CLUT(inputCount, gridPointCount, outputCount);
 	    if (precision == 1) {
 		readClut8(clut, in);
 	    } else if (precision == 2) {
 		readClut16(clut, in);
 	    } else {
 		Logger.getGlobal().log(Level.SEVERE, "Unknown CLUT precision: " + precision);
+		clut.allocate(4);
 	    }
 	    return clut;
 	}
 
-	void readMatrix(int offset, byte[] data, float[] matrix) throws IOException {
-	    InputStream in = new ByteArrayInputStream(data, offset, data.length - offset);
+	void readMatrix(int offset, ByteBuffer data, float[] matrix) throws IOException {
+	    InputStream in = new ByteBufferInputStream(data, offset, data.limit() - offset);
 	    for (int i = 0; i < matrix.length; i++) {
 		matrix[i] = read_s15Fixed16(in);
 	    }
 	}
     }
 
-    static ICurve[] readCurves(int offset, int count, byte[] data) throws IOException {
-	InputStream in = new ByteArrayInputStream(data, offset, data.length - offset);
+    static ICurve[] readCurves(int offset, int count, ByteBuffer data) throws IOException {
+	InputStream in = new ByteBufferInputStream(data, offset, data.limit() - offset);
 	ICurve[] res = new ICurve[count];
 
 	for (int i = 0; i < count; i++) {
@@ -406,7 +444,7 @@ public abstract class TagReader {
 	    if (ttype != null) {
 		TagReader reader = ttype.getTagReader();
 		if (reader != null) {
-		    Tag tag = reader.read(data.length, in);
+		    Tag tag = reader.read(data.limit(), in);
 		    if (tag instanceof ICurve) {
 			res[i] = (ICurve) tag;
 		    } else {
@@ -593,8 +631,9 @@ public abstract class TagReader {
 	    res.setReserved(IOutils.readUnsignedIntBE(in));
 	    int count = (length - 8) / 4;
 	    res.values = new float[count];
+	    ByteBuffer b = readBuffer(in, count * 4);
 	    for (int i = 0; i < count; i++) {
-		res.values[i] = read_s15Fixed16(in);
+		res.values[i] = b.getInt(i * 4) / 65535f;
 	    }
 	    return res;
 	}
@@ -612,8 +651,9 @@ public abstract class TagReader {
 	    res.setReserved(IOutils.readUnsignedIntBE(in));
 	    int count = (length - 8) / 4;
 	    res.values = new float[count];
+	    ByteBuffer b = readBuffer(in, count * 4);
 	    for (int i = 0; i < count; i++) {
-		res.values[i] = read_u16Fixed16(in);
+		res.values[i] = b.getInt(i * 4) / 65535f;
 	    }
 	    return res;
 	}
@@ -680,8 +720,9 @@ public abstract class TagReader {
 	    res.setReserved(IOutils.readUnsignedIntBE(in));
 	    int count = (length - 8) / 2;
 	    res.values = new int[count];
+	    ByteBuffer b = readBuffer(in, count * 2);
 	    for (int i = 0; i < count; i++) {
-		res.values[i] = IOutils.readShortBE(in);
+		res.values[i] = b.getShort(i * 2) & 0xFFFF;
 	    }
 	    return res;
 	}
@@ -699,8 +740,9 @@ public abstract class TagReader {
 	    res.setReserved(IOutils.readUnsignedIntBE(in));
 	    int count = (length - 8) / 4;
 	    res.values = new long[count];
+	    ByteBuffer b = readBuffer(in, count * 4);
 	    for (int i = 0; i < count; i++) {
-		res.values[i] = IOutils.readUnsignedIntBE(in);
+		res.values[i] = b.getInt(i * 4) & 0xFFFFFFFFL;
 	    }
 	    return res;
 	}
@@ -718,9 +760,7 @@ public abstract class TagReader {
 	    res.setReserved(IOutils.readUnsignedIntBE(in));
 	    int count = (length - 8) / 8;
 	    res.values = new long[count];
-	    for (int i = 0; i < count; i++) {
-		res.values[i] = IOutils.readLongBE(in);
-	    }
+	    readBuffer(in, count * 8).asLongBuffer().get(res.values);
 	    return res;
 	}
     }
@@ -737,8 +777,9 @@ public abstract class TagReader {
 	    res.setReserved(IOutils.readUnsignedIntBE(in));
 	    int count = (length - 8);
 	    res.values = new int[count];
+	    ByteBuffer b = readBuffer(in, count);
 	    for (int i = 0; i < count; i++) {
-		res.values[i] = in.read();
+		res.values[i] = b.get(i) & 0xFF;
 	    }
 	    return res;
 	}
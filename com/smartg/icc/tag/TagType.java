@@ -29,6 +29,7 @@
  */
 package com.smartg.icc.tag;
 
+import com.smartg.icc.SignatureMap;
 import com.smartg.icc.tag.TagReader.ChromaticityTypeReader;
 import com.smartg.icc.tag.TagReader.ColorantOrderReader;
 import com.smartg.icc.tag.TagReader.ColorantTableReader;
@@ -159,18 +160,20 @@ public enum TagType {
 	return tagReader;
     }
 
-    public static TagType create(long value) {
-	for (TagType type : TagType.values()) {
-	    if (value == type.value) {
-		return type;
-	    }
+    private static final SignatureMap<TagType> map = new SignatureMap<TagType>(values().length);
+
+    static {
+	// some signatures are listed twice, first one wins
+	for (TagType type : values()) {
+	    map.put(type.value, type);
 	}
-	return null;
-	// throw new IllegalArgumentException("TagType not found for " + value +
-	// " (" + toString(value) + ")");
-	// Logger.getGlobal().log(Level.WARNING, "TagType not found for " +
-	// value + " (" + toString(value) + ")");
-	// return new UTagType(value);
+    }
+
+    /**
+     * @return TagType with given signature or null
+     */
+    public static TagType create(long value) {
+	return map.get(value);
     }
 
     static String toString(long value) {